@@ -0,0 +1,111 @@
+package edu.vt.ranhuo.asyncbenchmark;
+
+import edu.vt.ranhuo.asynccore.config.TaskConfig;
+import edu.vt.ranhuo.asynccore.config.TaskContext;
+import edu.vt.ranhuo.asynccore.model.Task;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.Redisson;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.config.Config;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.*;
+
+/**
+ * 基准测试公共方法
+ * -Dbenchmark.host / -Dbenchmark.port 指定redis地址, 默认127.0.0.1:6379
+ * -Dbenchmark.embedded=true 在benchmark.port上启动内嵌的redis-server, 适用于本地没有redis的环境
+ */
+@Slf4j
+public final class BenchmarkSupport {
+    public static final String BENCHMARK_PREFIX = "benchmark:";
+    private static final int FILL_BATCH_SIZE = 1000;
+
+    private static RedisServer server;
+    private static RedissonClient client;
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * 同一个jvm内所有基准测试共享一个RedissonClient, 因为RedissonUtils是以第一个client创建的单例
+     */
+    public static synchronized RedissonClient client() throws IOException {
+        if (client == null) {
+            String host = System.getProperty("benchmark.host", "127.0.0.1");
+            int port = Integer.getInteger("benchmark.port", 6379);
+            if (Boolean.getBoolean("benchmark.embedded")) {
+                server = new RedisServer(port);
+                server.start();
+                log.warn("embedded redis started, port: {}", port);
+            }
+            Config config = Config.fromYAML(BenchmarkSupport.class.getClassLoader().getResource("redisson.yml"));
+            config.useSingleServer().setAddress(String.format("redis://%s:%d", host, port));
+            client = Redisson.create(config);
+            Runtime.getRuntime().addShutdownHook(new Thread(BenchmarkSupport::shutdown));
+        }
+        return client;
+    }
+
+    public static TaskConfig config(String name, int queueNums) throws IOException {
+        return TaskConfig.builder().prefix(BENCHMARK_PREFIX.concat(name)).redissonClient(client())
+                .queueNums(queueNums).build();
+    }
+
+    /**
+     * 生成指定字节数的任务内容, 由序号保证唯一
+     */
+    public static String payload(long sequence, int size) {
+        String head = String.valueOf(sequence).concat(REDIS_SPLIT);
+        if (head.length() >= size) {
+            return head;
+        }
+        char[] padding = new char[size - head.length()];
+        Arrays.fill(padding, 'x');
+        return head.concat(new String(padding));
+    }
+
+    /**
+     * 以序号为score的单个任务, 用于TaskService.send
+     */
+    public static Map<Task<String>, Double> task(long sequence, int size) {
+        return Collections.singletonMap(new Task<>(Task.newId(FIRST), payload(sequence, size)), (double) sequence);
+    }
+
+    /**
+     * 向节点执行队列中预先写入指定数量的任务ID, 模拟执行中任务较多的场景
+     */
+    public static void fillExecuteSet(TaskContext context, String hashKey, int size) {
+        List<String> values = new ArrayList<>(FILL_BATCH_SIZE);
+        for (int i = ZERO; i < size; i++) {
+            values.add(Task.newId(FIRST));
+            if (values.size() == FILL_BATCH_SIZE || i == size - FIRST) {
+                client.getSet(context.executeSet(hashKey), StringCodec.INSTANCE).addAll(values);
+                values.clear();
+            }
+        }
+    }
+
+    public static void clean(TaskContext context) {
+        context.getAllKey().forEach((v) -> context.getRedissonUtils().del(v));
+    }
+
+    private static synchronized void shutdown() {
+        client.shutdown();
+        if (server != null) {
+            try {
+                server.stop();
+            } catch (IOException e) {
+                log.error("embedded redis stop failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package edu.vt.ranhuo.asyncbenchmark;
+
+import edu.vt.ranhuo.asynccore.utils.HashRing;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一致性哈希环的构建与增删节点开销, legacy为原先TreeMap + 每个虚拟节点一次SHA-256的实现
+ * 内存占用配合 -prof gc 查看 gc.alloc.rate.norm, 不需要redis
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class HashRingBenchmark {
+    private static final int QUEUE_NUM = 9;
+
+    @Param({"10", "50"})
+    private int nodes;
+
+    @Param({"160", "10000"})
+    private int virtualNodes;
+
+    private HashRing ring;
+    private TreeMap<Long, String> legacyRing;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ring = buildRing();
+        legacyRing = buildLegacyRing();
+    }
+
+    @Benchmark
+    public HashRing build() {
+        return buildRing();
+    }
+
+    @Benchmark
+    public TreeMap<Long, String> buildLegacy() {
+        return buildLegacyRing();
+    }
+
+    /**
+     * 新节点加入后再宕机, 只处理该节点自身的虚拟节点
+     */
+    @Benchmark
+    public int addRemove() {
+        ring.add("node-extra");
+        ring.remove("node-extra");
+        return ring.size();
+    }
+
+    @Benchmark
+    public int addRemoveLegacy() throws NoSuchAlgorithmException {
+        for (int i = 0; i < virtualNodes; i++) {
+            legacyRing.put(legacyHash("node-extra#" + i), "node-extra");
+        }
+        for (int i = 0; i < virtualNodes; i++) {
+            legacyRing.remove(legacyHash("node-extra#" + i));
+        }
+        return legacyRing.size();
+    }
+
+    @Benchmark
+    public String locate() {
+        String node = null;
+        for (int i = 0; i < QUEUE_NUM; i++) {
+            node = ring.locate("queue" + i).orElse(null);
+        }
+        return node;
+    }
+
+    @Benchmark
+    public String locateLegacy() throws NoSuchAlgorithmException {
+        String node = null;
+        for (int i = 0; i < QUEUE_NUM; i++) {
+            Map.Entry<Long, String> entry = legacyRing.ceilingEntry(legacyHash("queue" + i));
+            node = (entry == null ? legacyRing.firstEntry() : entry).getValue();
+        }
+        return node;
+    }
+
+    private HashRing buildRing() {
+        HashRing hashRing = new HashRing(virtualNodes);
+        List<String> names = new ArrayList<>();
+        for (int n = 0; n < nodes; n++) {
+            names.add("node" + n);
+        }
+        hashRing.addAll(names);
+        return hashRing;
+    }
+
+    private TreeMap<Long, String> buildLegacyRing() {
+        try {
+            TreeMap<Long, String> hashRing = new TreeMap<>();
+            for (int n = 0; n < nodes; n++) {
+                for (int i = 0; i < virtualNodes; i++) {
+                    hashRing.put(legacyHash("node" + n + "#" + i), "node" + n);
+                }
+            }
+            return hashRing;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long legacyHash(String key) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] hashBytes = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+        return new BigInteger(1, Arrays.copyOfRange(hashBytes, 0, 8)).longValue() & 0x7fffffffffffffffL;
+    }
+}
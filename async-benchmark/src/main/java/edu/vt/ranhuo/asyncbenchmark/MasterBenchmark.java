@@ -0,0 +1,99 @@
+package edu.vt.ranhuo.asyncbenchmark;
+
+import edu.vt.ranhuo.asynccore.config.TaskConfig;
+import edu.vt.ranhuo.asynccore.config.TaskContext;
+import edu.vt.ranhuo.asynccore.model.Task;
+import edu.vt.ranhuo.asyncmaster.context.Master;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static edu.vt.ranhuo.asyncbenchmark.BenchmarkSupport.*;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.FIRST;
+
+/**
+ * master端: 投放任务与消费结果队列
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class MasterBenchmark {
+    private static final int BATCH_SIZE = 32;
+
+    @Param({"1", "3", "9"})
+    private int queueNums;
+
+    @Param({"64", "1024"})
+    private int payloadSize;
+
+    private Master<String> master;
+    private TaskContext context;
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        TaskConfig config = config("master", queueNums);
+        context = new TaskContext(config);
+        master = new Master<>(config);
+    }
+
+    @TearDown(Level.Iteration)
+    public void clean() {
+        BenchmarkSupport.clean(context);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        master.close();
+    }
+
+    @Benchmark
+    public void send() {
+        master.send(sequence, payload(sequence++, payloadSize));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Map<String, String> sendAll() {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            values.put(payload(sequence, payloadSize), (double) sequence++);
+        }
+        return master.sendAll(values);
+    }
+
+    /**
+     * 写入一个结果, 消费并提交, 结果队列长度保持稳定
+     */
+    @Benchmark
+    public Optional<Task<String>> consume() {
+        String id = Task.newId(FIRST);
+        context.getRedissonUtils().hset(context.resultHash(), id, payload(sequence++, payloadSize));
+        context.getRedissonUtils().rpush(context.resultQueue(), id);
+        Optional<Task<String>> value = master.consume();
+        value.ifPresent(master::commit);
+        return value;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<Task<String>> consumeBatch() {
+        Map<String, String> results = new LinkedHashMap<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            results.put(Task.newId(FIRST), payload(sequence++, payloadSize));
+        }
+        context.getRedissonUtils().getRedisson().getMap(context.resultHash(), context.getRedissonUtils().getCodec()).putAll(results);
+        context.getRedissonUtils().getRedisson().getList(context.resultQueue(), context.getRedissonUtils().getCodec()).addAll(results.keySet());
+        List<Task<String>> values = master.consume(BATCH_SIZE);
+        values.forEach(master::commit);
+        return values;
+    }
+}
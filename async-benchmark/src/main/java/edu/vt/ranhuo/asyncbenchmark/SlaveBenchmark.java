@@ -0,0 +1,131 @@
+package edu.vt.ranhuo.asyncbenchmark;
+
+import edu.vt.ranhuo.asynccore.config.TaskConfig;
+import edu.vt.ranhuo.asynccore.config.TaskContext;
+import edu.vt.ranhuo.asynccore.model.Task;
+import edu.vt.ranhuo.asynccore.service.task.TaskService;
+import edu.vt.ranhuo.asynccore.service.task.impl.TaskServiceImpl;
+import edu.vt.ranhuo.asyncslave.context.Slave;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static edu.vt.ranhuo.asyncbenchmark.BenchmarkSupport.*;
+
+/**
+ * slave端: 获取任务与提交结果, 每次操作先向轮转到的队列写入一个任务, 队列长度保持稳定
+ * consumeLocked复现了改为lua脚本之前的分布式锁消费方式, 用于和无锁消费对比
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class SlaveBenchmark {
+    private static final int BATCH_SIZE = 32;
+
+    @Param({"1", "3", "9"})
+    private int queueNums;
+
+    @Param({"64", "1024"})
+    private int payloadSize;
+
+    @Param({"0", "10000"})
+    private int inFlight;
+
+    private Slave<String> slave;
+    private TaskContext context;
+    private TaskService<String, String> service;
+    private List<String> queues;
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        TaskConfig config = config("slave", queueNums);
+        context = new TaskContext(config);
+        service = new TaskServiceImpl(context);
+        slave = new Slave<>(config);
+        queues = context.getAllQueue();
+        Thread.sleep(100); // 等待心跳注册, consume_unlock才能获取到队列分配
+    }
+
+    @Setup(Level.Iteration)
+    public void fill() {
+        fillExecuteSet(context, slave.getNodeInfo(), inFlight);
+    }
+
+    @TearDown(Level.Iteration)
+    public void clean() {
+        BenchmarkSupport.clean(context);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        slave.close();
+    }
+
+    @Benchmark
+    public Optional<Task<String>> consume() {
+        produce();
+        return commit(slave.consume());
+    }
+
+    @Benchmark
+    public Optional<Task<String>> consumeUnlock() {
+        produce();
+        return commit(slave.consume_unlock());
+    }
+
+    @Benchmark
+    public Optional<Task<String>> consumeLocked() {
+        produce();
+        return commit(lockedConsume());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<Task<String>> consumeBatch() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            produce();
+        }
+        List<Task<String>> values = slave.consume(BATCH_SIZE);
+        Map<Task<String>, String> results = new LinkedHashMap<>();
+        values.forEach((v) -> results.put(v, v.getPayload()));
+        slave.commitAll(results);
+        return values;
+    }
+
+    private void produce() {
+        long current = sequence++;
+        service.send(queues.get((int) (current % queueNums)), task(current, payloadSize));
+    }
+
+    private Optional<Task<String>> commit(Optional<Task<String>> value) {
+        value.ifPresent((v) -> slave.commit(v.getPayload(), v));
+        return value;
+    }
+
+    // 改为lua脚本之前的消费方式: 每个队列一把分布式锁, 锁内zrange读取最高优先级任务, 再sadd执行队列并zrem, 最后读取任务数据
+    private Optional<Task<String>> lockedConsume() {
+        for (String queueName : queues) {
+            Optional<String> value = context.getRedissonUtils().lock(context.slaveConsumerLock(queueName), Optional.empty(), (t) -> {
+                Optional<String> tValue = context.getRedissonUtils().zrpop(queueName);
+                tValue.ifPresent((v) -> {
+                    service.sendExecuteQueue(slave.getNodeInfo(), v);
+                    context.getRedissonUtils().zrem(queueName, v);
+                });
+                return tValue;
+            });
+            if (value.isPresent()) {
+                return value.map(id -> new Task<>(id, context.getRedissonUtils().<String, String>hget(context.payloadHash(), id).orElse(id)));
+            }
+        }
+        return Optional.empty();
+    }
+}
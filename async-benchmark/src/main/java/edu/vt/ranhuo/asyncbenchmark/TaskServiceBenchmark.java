@@ -0,0 +1,120 @@
+package edu.vt.ranhuo.asyncbenchmark;
+
+import edu.vt.ranhuo.asynccore.config.TaskContext;
+import edu.vt.ranhuo.asynccore.model.Task;
+import edu.vt.ranhuo.asynccore.service.task.TaskService;
+import edu.vt.ranhuo.asynccore.service.task.impl.TaskServiceImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static edu.vt.ranhuo.asyncbenchmark.BenchmarkSupport.*;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.FIRST;
+
+/**
+ * TaskServiceImpl单个操作的开销, 不包含master/slave的日志与队列选择
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class TaskServiceBenchmark {
+    private static final int BATCH_SIZE = 32;
+    private static final String HASH_KEY = "slave:benchmark";
+
+    @Param({"64", "1024"})
+    private int payloadSize;
+
+    @Param({"0", "10000", "100000"})
+    private int inFlight;
+
+    private TaskContext context;
+    private TaskService<String, String> service;
+    private List<String> queues;
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        context = new TaskContext(config("service", 9));
+        service = new TaskServiceImpl(context);
+        queues = context.getAllQueue();
+    }
+
+    @Setup(Level.Iteration)
+    public void fill() {
+        fillExecuteSet(context, HASH_KEY, inFlight);
+    }
+
+    @TearDown(Level.Iteration)
+    public void clean() {
+        queues.forEach((v) -> context.getRedissonUtils().del(v));
+        context.getRedissonUtils().del(context.resultQueue());
+        context.getRedissonUtils().del(context.executeSet(HASH_KEY));
+        context.getRedissonUtils().del(context.payloadHash());
+        context.getRedissonUtils().del(context.resultHash());
+    }
+
+    /**
+     * 写入一个任务并claim
+     */
+    @Benchmark
+    public Optional<Task<String>> claim() {
+        String queue = queues.get(0);
+        service.send(queue, task(sequence++, payloadSize));
+        return service.claim(queue, HASH_KEY);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<Task<String>> claimBatch() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            service.send(queues.get(i % queues.size()), task(sequence++, payloadSize));
+        }
+        return service.claim(queues, HASH_KEY, BATCH_SIZE);
+    }
+
+    @Benchmark
+    public void sendAndCommitExecute() {
+        String id = Task.newId(FIRST);
+        service.sendExecuteQueue(HASH_KEY, id);
+        service.commitExecuteTask(HASH_KEY, id);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void commitAll() {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            values.put(Task.newId(FIRST), payload(sequence++, payloadSize));
+        }
+        service.commitAll(HASH_KEY, values);
+    }
+
+    /**
+     * 写入一批结果并drain, 结果队列长度保持稳定
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<Task<String>> drain() {
+        Map<String, String> results = new LinkedHashMap<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            results.put(Task.newId(FIRST), payload(sequence++, payloadSize));
+        }
+        context.getRedissonUtils().getRedisson().getMap(context.resultHash(), context.getRedissonUtils().getCodec()).putAll(results);
+        context.getRedissonUtils().getRedisson().getList(context.resultQueue(), context.getRedissonUtils().getCodec()).addAll(results.keySet());
+        return service.drain(context.resultQueue(), HASH_KEY, BATCH_SIZE);
+    }
+
+    @Benchmark
+    public int getExecuteQueueSum() {
+        return service.getExecuteQueueSum(HASH_KEY);
+    }
+}
@@ -0,0 +1,73 @@
+package edu.vt.ranhuo.asynccore.codec;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.Pool;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * 基于kryo的紧凑二进制编解码器, kryo实例不是线程安全的, 通过对象池复用
+ * 预先注册的类只写入注册编号而不是完整类名, 任务类型固定时建议全部注册, master和slave的注册顺序必须一致
+ */
+public class KryoTaskCodec<T> implements TaskCodec<T> {
+    private static final int BUFFER_SIZE = 256;
+    private static final int MAX_BUFFER_SIZE = -1; // 输出缓冲区按需扩容, 不限制大小
+
+    private final Pool<Kryo> kryoPool;
+    private final Pool<Output> outputPool;
+
+    public KryoTaskCodec(Class<?>... registrations) {
+        this(kryo -> Arrays.stream(registrations).forEach(kryo::register));
+    }
+
+    /**
+     * @param customizer 对每个新建的kryo实例执行, 用于注册类和序列化器
+     */
+    public KryoTaskCodec(Consumer<Kryo> customizer) {
+        int poolSize = Runtime.getRuntime().availableProcessors() * 2;
+        this.kryoPool = new Pool<Kryo>(true, false, poolSize) {
+            @Override
+            protected Kryo create() {
+                Kryo kryo = new Kryo();
+                kryo.setRegistrationRequired(false);
+                kryo.setReferences(false);
+                customizer.accept(kryo);
+                return kryo;
+            }
+        };
+        this.outputPool = new Pool<Output>(true, false, poolSize) {
+            @Override
+            protected Output create() {
+                return new Output(BUFFER_SIZE, MAX_BUFFER_SIZE);
+            }
+        };
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        Kryo kryo = kryoPool.obtain();
+        Output output = outputPool.obtain();
+        try {
+            output.reset();
+            kryo.writeClassAndObject(output, value);
+            return output.toBytes();
+        } finally {
+            outputPool.free(output);
+            kryoPool.free(kryo);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T decode(byte[] data) {
+        Kryo kryo = kryoPool.obtain();
+        try {
+            return (T) kryo.readClassAndObject(new Input(data));
+        } finally {
+            kryoPool.free(kryo);
+        }
+    }
+}
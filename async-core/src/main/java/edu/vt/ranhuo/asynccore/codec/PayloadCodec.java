@@ -0,0 +1,86 @@
+package edu.vt.ranhuo.asynccore.codec;
+
+import edu.vt.ranhuo.asynccore.config.TaskConfig;
+import edu.vt.ranhuo.asynccore.model.Task;
+import org.iq80.snappy.Snappy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.FIRST;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.PAYLOAD_CHARSET;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.ZERO;
+
+/**
+ * 任务与redis中成员之间的转换: TaskCodec编码后按需压缩, 再以ISO-8859-1映射为字符串
+ * 每个字节对应一个字符, lua脚本和StringCodec(ISO-8859-1)都按原始字节处理, 二进制数据写入redis前后完全一致
+ * 开启压缩(compressThreshold > 0)时首字节标记是否压缩, 不小于阈值的数据使用snappy压缩, 未开启时不写入标记, 与之前的数据兼容
+ */
+public class PayloadCodec<T> {
+    private static final byte RAW = 0;
+    private static final byte SNAPPY = 1;
+
+    private final TaskCodec<T> codec;
+    private final int compressThreshold;
+
+    public PayloadCodec(TaskCodec<T> codec, int compressThreshold) {
+        this.codec = codec;
+        this.compressThreshold = compressThreshold;
+    }
+
+    /**
+     * 使用config中的编解码器, 调用方保证T与编解码器的类型一致
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> PayloadCodec<T> of(TaskConfig config) {
+        return new PayloadCodec<>((TaskCodec<T>) config.getCodec(), config.getCompressThreshold());
+    }
+
+    public String encode(T value) {
+        byte[] data = codec.encode(value);
+        if (compressThreshold > ZERO) {
+            data = data.length >= compressThreshold ? mark(SNAPPY, Snappy.compress(data)) : mark(RAW, data);
+        }
+        return new String(data, PAYLOAD_CHARSET);
+    }
+
+    public T decode(String payload) {
+        byte[] data = payload.getBytes(PAYLOAD_CHARSET);
+        if (compressThreshold > ZERO) {
+            data = data[ZERO] == SNAPPY ? Snappy.uncompress(data, FIRST, data.length - FIRST) : Arrays.copyOfRange(data, FIRST, data.length);
+        }
+        return codec.decode(data);
+    }
+
+    /**
+     * 解码任务数据, 任务ID保持不变
+     */
+    public Task<T> decode(Task<String> task) {
+        return task.withPayload(decode(task.getPayload()));
+    }
+
+    public List<Task<T>> decodeTasks(List<Task<String>> tasks) {
+        List<Task<T>> values = new ArrayList<>(tasks.size());
+        tasks.forEach(task -> values.add(decode(task)));
+        return values;
+    }
+
+    /**
+     * 按原顺序编码任务ID -> 任务数据
+     */
+    public Map<String, String> encode(Map<String, T> values) {
+        Map<String, String> payloads = new LinkedHashMap<>();
+        values.forEach((id, v) -> payloads.put(id, encode(v)));
+        return payloads;
+    }
+
+    private static byte[] mark(byte flag, byte[] data) {
+        byte[] marked = new byte[data.length + FIRST];
+        marked[ZERO] = flag;
+        System.arraycopy(data, ZERO, marked, FIRST, data.length);
+        return marked;
+    }
+}
@@ -0,0 +1,20 @@
+package edu.vt.ranhuo.asynccore.codec;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 默认编解码器, 任务为UTF-8字符串, 与之前版本写入redis的数据兼容
+ */
+public class StringTaskCodec implements TaskCodec<String> {
+    public static final StringTaskCodec INSTANCE = new StringTaskCodec();
+
+    @Override
+    public byte[] encode(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String decode(byte[] data) {
+        return new String(data, StandardCharsets.UTF_8);
+    }
+}
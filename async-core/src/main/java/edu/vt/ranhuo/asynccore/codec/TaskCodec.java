@@ -0,0 +1,11 @@
+package edu.vt.ranhuo.asynccore.codec;
+
+/**
+ * 任务数据与redis中二进制数据之间的转换, 实现必须线程安全
+ * 提交、失败和续约都按任务ID定位执行队列中的任务, 编码结果只作为负载保存, 不要求多次编码结果相同
+ */
+public interface TaskCodec<T> {
+    byte[] encode(T value);
+
+    T decode(byte[] data);
+}
@@ -1,10 +1,10 @@
 package edu.vt.ranhuo.asynccore.config;
 
+import edu.vt.ranhuo.asynccore.enums.KeyLayout;
 import edu.vt.ranhuo.asynccore.enums.QueueType;
 import edu.vt.ranhuo.asynccore.utils.RedissonUtils;
 
 import java.util.List;
-import java.util.Optional;
 
 public interface ITaskContext {
     String prefix();
@@ -25,29 +25,167 @@ public interface ITaskContext {
 
     String getQueue(QueueType queueType);
 
+    /**
+     * 按分片编号获取就绪队列, 分片编号从1开始, 不受QueueType的9个限制
+     */
+    String getQueue(int shard);
+
+    /**
+     * 任务ID中记录的分片的就绪队列, ID无法解析或分片超出getQueueNums()(升级前或其他来源写入的数据)时返回fallback,
+     * 避免任务被放入没有slave消费的队列
+     */
+    String queueOf(String id, String fallback);
+
     List<String> getAllQueue();
 
     int getQueueNums();
 
+    /**
+     * 从redis读取最新的分片数, 其他节点扩容后由心跳和rebalance通知触发
+     */
+    int refreshQueueNums();
+
+    /**
+     * 将分片数扩容至queueNums, 只增不减, 返回生效的分片数
+     */
+    int growQueueNums(int queueNums);
+
+    /**
+     * redis中保存分片数的key
+     */
+    String queueNumsKey();
+
     List<QueueType> getAllQueueType();
 
     String resultQueue();
 
+    /**
+     * 与指定分片位于同一个slot的结果队列, STANDALONE布局下所有分片共用resultQueue()
+     */
+    String resultQueue(String queue);
+
+    /**
+     * 全部结果队列, STANDALONE布局下只有一个
+     */
+    List<String> resultQueues();
+
+    /**
+     * 保存任务数据的hash, 与指定分片位于同一个slot, STANDALONE布局下全部分片共用payloadHash()
+     */
+    String payloadHash(String queue);
+
+    String payloadHash();
+
+    /**
+     * 保存任务结果的hash, 与指定分片位于同一个slot, STANDALONE布局下全部分片共用resultHash()
+     */
+    String resultHash(String queue);
+
+    String resultHash();
+
+    /**
+     * slave执行中任务的租约索引, zset结构, score为租约到期时间, 与指定分片位于同一个slot, STANDALONE布局下全部分片共用leaseIndex()
+     */
+    String leaseIndex(String queue);
+
+    String leaseIndex();
+
+    /**
+     * 全部租约索引, STANDALONE布局下只有一个
+     */
+    List<String> leaseIndexes();
+
+    /**
+     * 任务租约时长, 0为不启用
+     */
+    long leaseTimeout();
+
+    /**
+     * 延时任务的定时索引, zset结构, score为投放时间, 与指定分片位于同一个slot, STANDALONE布局下全部分片共用timerIndex()
+     */
+    String timerIndex(String queue);
+
+    String timerIndex();
+
+    /**
+     * 全部定时索引, STANDALONE布局下只有一个
+     */
+    List<String> timerIndexes();
+
+    /**
+     * 延时任务进入就绪队列后的score, 与timerIndex(queue)位于同一个slot
+     */
+    String timerHash(String queue);
+
+    String timerHash();
+
+    long timerInterval();
+
+    /**
+     * 任务的失败次数, 与指定分片位于同一个slot
+     */
+    String attemptsHash(String queue);
+
+    String attemptsHash();
+
+    /**
+     * 死信索引, zset结构, score为进入死信的时间, 与指定分片位于同一个slot, STANDALONE布局下全部分片共用deadIndex()
+     */
+    String deadIndex(String queue);
+
+    String deadIndex();
+
+    /**
+     * 全部死信索引, STANDALONE布局下只有一个
+     */
+    List<String> deadIndexes();
+
+    /**
+     * 死信任务最后一次失败的原因, 与deadIndex(queue)位于同一个slot
+     */
+    String deadHash(String queue);
+
+    String deadHash();
+
+    int maxAttempts();
+
+    long retryBackoff();
+
+    long maxRetryBackoff();
+
     String masterConsumerLock();
 
     String slaveConsumerLock(String queue);
 
-    String executeHash();
+    String executeSet(String hashKey);
+
+    /**
+     * 节点在指定分片上的执行队列, queue可以是该分片的任意key, STANDALONE布局下与executeSet(hashKey)相同
+     */
+    String executeSet(String hashKey, String queue);
+
+    /**
+     * 节点在全部分片上的执行队列, STANDALONE布局下只有一个
+     */
+    List<String> executeSets(String hashKey);
+
+    KeyLayout keyLayout();
 
-    String heartHash();
+    /**
+     * 心跳索引, zset结构, score为节点最近一次心跳的时间戳
+     */
+    String heartIndex();
+
+    /**
+     * slave随心跳上报的任务完成速率, hash结构
+     */
+    String throughputHash();
+
+    String readyTopic();
 
     String masterHashKey();
 
     String slaveHashKey();
 
     List<String> getAllKey();
-
-    String addSplit(Optional<String> source, String value);
-
-    List<String> deleteSplit(String value);
 }
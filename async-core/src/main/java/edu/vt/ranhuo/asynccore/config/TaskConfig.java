@@ -1,5 +1,8 @@
 package edu.vt.ranhuo.asynccore.config;
 
+import edu.vt.ranhuo.asynccore.codec.StringTaskCodec;
+import edu.vt.ranhuo.asynccore.codec.TaskCodec;
+import edu.vt.ranhuo.asynccore.enums.KeyLayout;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NonNull;
@@ -24,6 +27,33 @@ public class TaskConfig implements ITaskConfig{
 
     @Builder.Default
     private String rebalanceStrategy = ROUND_ROBIN;
+
+    @Builder.Default
+    private int virtualNodes = VIRTUAL_NODES; // 一致性哈希策略下每个节点的虚拟节点数
+
+    @Builder.Default
+    private KeyLayout keyLayout = KeyLayout.STANDALONE; // 使用redis cluster时设置为CLUSTER
+
+    @Builder.Default
+    private TaskCodec<?> codec = StringTaskCodec.INSTANCE; // 任务编解码器, 类型需与Master<T>/Slave<T>一致, master和slave必须相同
+
+    @Builder.Default
+    private int compressThreshold = COMPRESS_THRESHOLD; // 编码后不小于此字节数的任务使用snappy压缩, 0为不压缩, master和slave必须相同
+
+    @Builder.Default
+    private long leaseTimeout = LEASE_TIMEOUT; // slave取出任务后的租约时长, 单位毫秒, 到期未提交或续约的任务由leader放回就绪队列, 0为不启用
+
+    @Builder.Default
+    private long timerInterval = TIMER_INTERVAL; // leader将到期的延时任务移入就绪队列的间隔, 单位毫秒, 决定延时任务的投放精度
+
+    @Builder.Default
+    private int maxAttempts = MAX_ATTEMPTS; // slave.fail后任务最多执行的次数, 达到后进入死信, 1为不重试
+
+    @Builder.Default
+    private long retryBackoff = RETRY_BACKOFF; // 第一次重试前的等待时间, 单位毫秒, 之后每次翻倍
+
+    @Builder.Default
+    private long maxRetryBackoff = MAX_RETRY_BACKOFF; // 重试等待时间的上限, 单位毫秒
     @Override
     public int getExpirationCount() { //不能小于3
         return Math.max(expirationCount, MIN_EXPIRATION_COUNT);
@@ -32,4 +62,8 @@ public class TaskConfig implements ITaskConfig{
     public long getHeartbeatInterval() { //不能小于10s
         return Math.max(heartbeatInterval, MIN_HEARTBEAT_INTERVAL);
     }
+
+    public long getTimerInterval() { //不能小于100ms
+        return Math.max(timerInterval, MIN_TIMER_INTERVAL);
+    }
 }
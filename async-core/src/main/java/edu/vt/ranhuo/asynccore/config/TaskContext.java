@@ -1,13 +1,18 @@
 package edu.vt.ranhuo.asynccore.config;
 
+import edu.vt.ranhuo.asynccore.enums.KeyLayout;
 import edu.vt.ranhuo.asynccore.enums.QueueType;
+import edu.vt.ranhuo.asynccore.model.Task;
 import edu.vt.ranhuo.asynccore.utils.RedissonUtils;
 import lombok.Getter;
+import org.redisson.api.RScript;
+import org.redisson.client.codec.StringCodec;
 
 import java.lang.management.ManagementFactory;
 import java.util.*;
 
 import static edu.vt.ranhuo.asynccore.enums.CommonConstants.*;
+import static edu.vt.ranhuo.asynccore.enums.LuaScripts.QUEUE_GROW;
 
 @Getter
 public class TaskContext implements ITaskContext {
@@ -15,11 +20,16 @@ public class TaskContext implements ITaskContext {
     private final TaskConfig config;
     private final String pidHostname;
     private final RedissonUtils redissonUtils;
+    private volatile int queueNums; // 当前生效的分片数, 不小于config中的queueNums
 
     public TaskContext(TaskConfig config) {
         this.config = config;
+        this.queueNums = Math.max(config.getQueueNums(), FIRST);
         this.pidHostname = ManagementFactory.getRuntimeMXBean().getName()+getShortUUID();
-        this.redissonUtils = RedissonUtils.getInstance(Optional.ofNullable(config.getRedissonClient()));
+        // 任务数据(就绪/执行/结果队列)统一使用StringCodec, lua脚本可以直接操作原始字符串
+        // 使用ISO-8859-1, 任务经PayloadCodec编码后的二进制数据逐字节写入redis
+        this.redissonUtils = RedissonUtils.getInstance(Optional.ofNullable(config.getRedissonClient()))
+                .withCodec(new StringCodec(PAYLOAD_CHARSET));
     }
 
     private static String getShortUUID() {
@@ -92,35 +102,237 @@ public class TaskContext implements ITaskContext {
 
     @Override
     public String getQueue(QueueType queueType) {
-        return redisFormat(prefix(), queueType.getQueue());
+        return getQueue(queueType.getShard());
+    }
+
+    @Override
+    public String queueOf(String id, String fallback) {
+        int shard = Task.shardOf(id);
+        return shard >= FIRST && shard <= getQueueNums() ? getQueue(shard) : fallback;
+    }
+
+    @Override
+    public String getQueue(int shard) {
+        if (shard < FIRST) {
+            throw new IllegalArgumentException("Invalid shard: " + shard);
+        }
+        String queue = redisFormat(prefix(), QUEUE_PREFIX + shard);
+        return isCluster() ? HASH_TAG_START + queue + HASH_TAG_END : queue;
+    }
+
+    @Override
+    public KeyLayout keyLayout() {
+        return config.getKeyLayout();
+    }
+
+    private boolean isCluster() {
+        return keyLayout() == KeyLayout.CLUSTER;
+    }
+
+    // cluster布局下分片的key都以{分片队列名}开头
+    private String hashTag(String key) {
+        int end = key.indexOf(HASH_TAG_END);
+        if (!key.startsWith(HASH_TAG_START) || end < 0) {
+            throw new IllegalArgumentException("key has no hash tag: " + key);
+        }
+        return key.substring(ZERO, end + FIRST);
     }
 
     @Override
     public List<String> getAllQueue() {
         List<String> list = new ArrayList<>();
-        for(QueueType queueType : QueueType.getEnumsUpTo(config.getQueueNums())) {
-            list.add(getQueue(queueType));
+        for (int shard = FIRST; shard <= queueNums; shard++) {
+            list.add(getQueue(shard));
         }
         return list;
     }
 
     @Override
     public int getQueueNums() {
-        return config.getQueueNums();
+        return queueNums;
+    }
+
+    @Override
+    public int refreshQueueNums() {
+        long stored = redissonUtils.getLong(queueNumsKey());
+        queueNums = (int) Math.max(Math.max(config.getQueueNums(), FIRST), stored);
+        return queueNums;
     }
 
+    @Override
+    public int growQueueNums(int queueNums) {
+        Optional<Long> grown = redissonUtils.eval(RScript.Mode.READ_WRITE, QUEUE_GROW,
+                Collections.singletonList(queueNumsKey()), String.valueOf(queueNums));
+        this.queueNums = (int) Math.max(Math.max(config.getQueueNums(), FIRST), grown.orElse((long) queueNums));
+        return this.queueNums;
+    }
+
+    @Override
+    public String queueNumsKey() {
+        return redisFormat(prefix(), QUEUE_NUMS_KEY);
+    }
+
+    /**
+     * QueueType只有9个, 分片数超过9时只返回前9个分片
+     */
     @Override
     public List<QueueType> getAllQueueType() {
-        List<QueueType> list = new ArrayList<>();
-        for(QueueType queueType : QueueType.getEnumsUpTo(config.getQueueNums())) {
-            list.add(queueType);
+        return QueueType.getEnumsUpTo(Math.min(queueNums, QueueType.values().length));
+    }
+
+    @Override
+    public String resultQueue() {
+        return isCluster() ? resultQueue(getQueue(FIRST)) : redisFormat(prefix(), RESULT_QUEUE);
+    }
+
+    @Override
+    public String resultQueue(String queue) {
+        return isCluster() ? redisFormat(hashTag(queue), RESULT_QUEUE) : resultQueue();
+    }
+
+    @Override
+    public String payloadHash(String queue) {
+        return isCluster() ? redisFormat(hashTag(queue), PAYLOAD_HASH) : payloadHash();
+    }
+
+    @Override
+    public String payloadHash() {
+        return isCluster() ? payloadHash(getQueue(FIRST)) : redisFormat(prefix(), PAYLOAD_HASH);
+    }
+
+    @Override
+    public String resultHash(String queue) {
+        return isCluster() ? redisFormat(hashTag(queue), RESULT_HASH) : resultHash();
+    }
+
+    @Override
+    public String resultHash() {
+        return isCluster() ? resultHash(getQueue(FIRST)) : redisFormat(prefix(), RESULT_HASH);
+    }
+
+    @Override
+    public List<String> resultQueues() {
+        if (!isCluster()) {
+            return Collections.singletonList(resultQueue());
         }
+        List<String> list = new ArrayList<>();
+        getAllQueue().forEach(queue -> list.add(resultQueue(queue)));
         return list;
     }
 
     @Override
-    public String resultQueue() {
-        return redisFormat(prefix(), RESULT_QUEUE);
+    public String leaseIndex(String queue) {
+        return isCluster() ? redisFormat(hashTag(queue), LEASE_INDEX) : leaseIndex();
+    }
+
+    @Override
+    public String leaseIndex() {
+        return isCluster() ? leaseIndex(getQueue(FIRST)) : redisFormat(prefix(), LEASE_INDEX);
+    }
+
+    @Override
+    public List<String> leaseIndexes() {
+        if (!isCluster()) {
+            return Collections.singletonList(leaseIndex());
+        }
+        List<String> list = new ArrayList<>();
+        getAllQueue().forEach(queue -> list.add(leaseIndex(queue)));
+        return list;
+    }
+
+    @Override
+    public long leaseTimeout() {
+        return Math.max(config.getLeaseTimeout(), ZERO);
+    }
+
+    @Override
+    public String timerIndex(String queue) {
+        return isCluster() ? redisFormat(hashTag(queue), TIMER_INDEX) : timerIndex();
+    }
+
+    @Override
+    public String timerIndex() {
+        return isCluster() ? timerIndex(getQueue(FIRST)) : redisFormat(prefix(), TIMER_INDEX);
+    }
+
+    @Override
+    public List<String> timerIndexes() {
+        if (!isCluster()) {
+            return Collections.singletonList(timerIndex());
+        }
+        List<String> list = new ArrayList<>();
+        getAllQueue().forEach(queue -> list.add(timerIndex(queue)));
+        return list;
+    }
+
+    @Override
+    public String timerHash(String queue) {
+        return isCluster() ? redisFormat(hashTag(queue), TIMER_HASH) : timerHash();
+    }
+
+    @Override
+    public String timerHash() {
+        return isCluster() ? timerHash(getQueue(FIRST)) : redisFormat(prefix(), TIMER_HASH);
+    }
+
+    @Override
+    public long timerInterval() {
+        return config.getTimerInterval();
+    }
+
+    @Override
+    public String attemptsHash(String queue) {
+        return isCluster() ? redisFormat(hashTag(queue), ATTEMPTS_HASH) : attemptsHash();
+    }
+
+    @Override
+    public String attemptsHash() {
+        return isCluster() ? attemptsHash(getQueue(FIRST)) : redisFormat(prefix(), ATTEMPTS_HASH);
+    }
+
+    @Override
+    public String deadIndex(String queue) {
+        return isCluster() ? redisFormat(hashTag(queue), DEAD_INDEX) : deadIndex();
+    }
+
+    @Override
+    public String deadIndex() {
+        return isCluster() ? deadIndex(getQueue(FIRST)) : redisFormat(prefix(), DEAD_INDEX);
+    }
+
+    @Override
+    public List<String> deadIndexes() {
+        if (!isCluster()) {
+            return Collections.singletonList(deadIndex());
+        }
+        List<String> list = new ArrayList<>();
+        getAllQueue().forEach(queue -> list.add(deadIndex(queue)));
+        return list;
+    }
+
+    @Override
+    public String deadHash(String queue) {
+        return isCluster() ? redisFormat(hashTag(queue), DEAD_HASH) : deadHash();
+    }
+
+    @Override
+    public String deadHash() {
+        return isCluster() ? deadHash(getQueue(FIRST)) : redisFormat(prefix(), DEAD_HASH);
+    }
+
+    @Override
+    public int maxAttempts() {
+        return Math.max(config.getMaxAttempts(), FIRST);
+    }
+
+    @Override
+    public long retryBackoff() {
+        return Math.max(config.getRetryBackoff(), ZERO);
+    }
+
+    @Override
+    public long maxRetryBackoff() {
+        return Math.max(config.getMaxRetryBackoff(), retryBackoff());
     }
 
     @Override
@@ -133,14 +345,42 @@ public class TaskContext implements ITaskContext {
         return redisFormat(prefix(), SLAVE_LOCK+queueName);
     }
 
+    /**
+     * 每个节点独立的执行队列, set结构, 成员为执行中的任务
+     */
     @Override
-    public String executeHash() {
-        return redisFormat(prefix(), EXECUTE_HASH);
+    public String executeSet(String hashKey) {
+        return isCluster() ? executeSet(hashKey, getQueue(FIRST)) : redisFormat(prefix(), EXECUTE_SET.concat(hashKey));
     }
 
     @Override
-    public String heartHash() {
-        return redisFormat(prefix(), HEART_HASH);
+    public String executeSet(String hashKey, String queue) {
+        return isCluster() ? redisFormat(hashTag(queue), EXECUTE_SET.concat(hashKey)) : executeSet(hashKey);
+    }
+
+    @Override
+    public List<String> executeSets(String hashKey) {
+        if (!isCluster()) {
+            return Collections.singletonList(executeSet(hashKey));
+        }
+        List<String> list = new ArrayList<>();
+        getAllQueue().forEach(queue -> list.add(executeSet(hashKey, queue)));
+        return list;
+    }
+
+    @Override
+    public String heartIndex() {
+        return redisFormat(prefix(), HEART_INDEX);
+    }
+
+    @Override
+    public String throughputHash() {
+        return redisFormat(prefix(), THROUGHPUT_HASH);
+    }
+
+    @Override
+    public String readyTopic() {
+        return redisFormat(prefix(), READY_TOPIC);
     }
 
     @Override
@@ -156,31 +396,24 @@ public class TaskContext implements ITaskContext {
     @Override
     public List<String> getAllKey() {
         List<String> allQueue = getAllQueue();
-        allQueue.add(resultQueue());
+        allQueue.addAll(resultQueues());
+        getAllQueue().stream().map(this::payloadHash).distinct().forEach(allQueue::add);
+        getAllQueue().stream().map(this::resultHash).distinct().forEach(allQueue::add);
         allQueue.add(leaderLock());
         allQueue.add(leaderName());
         allQueue.add(masterConsumerLock());
         allQueue.add(slaveConsumerLock(QUEUE_ONE));
-        allQueue.add(executeHash());
-        allQueue.add(heartHash());
+        allQueue.addAll(executeSets(masterHashKey()));
+        allQueue.addAll(executeSets(slaveHashKey()));
+        allQueue.addAll(leaseIndexes());
+        allQueue.addAll(timerIndexes());
+        getAllQueue().stream().map(this::timerHash).distinct().forEach(allQueue::add);
+        getAllQueue().stream().map(this::attemptsHash).distinct().forEach(allQueue::add);
+        allQueue.addAll(deadIndexes());
+        getAllQueue().stream().map(this::deadHash).distinct().forEach(allQueue::add);
+        allQueue.add(heartIndex());
+        allQueue.add(throughputHash());
+        allQueue.add(queueNumsKey());
         return allQueue;
     }
-
-    /**
-     * 把新的value字符串添加到source字符串后面，中间用HASH_VALUE_SPLIT分隔
-     * @param source
-     * @param value
-     * @return
-     */
-    @Override
-    public String addSplit(Optional<String> source, String value) {
-        Objects.requireNonNull(value);
-        return source.map(s-> s.concat(HASH_VALUE_SPLIT).concat(value)).orElse(value);
-    }
-    // 拆分hash值
-    @Override
-    public List<String> deleteSplit(String value) {
-        Objects.requireNonNull(value);
-        return new ArrayList<>(Arrays.asList(value.split(HASH_VALUE_SPLIT_ESCAPE)));
-    }
 }
@@ -1,5 +1,8 @@
 package edu.vt.ranhuo.asynccore.enums;
 
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
 public enum CommonConstants {
     ;
     public static final String PREFIX = "codewave:default";
@@ -9,6 +12,9 @@ public enum CommonConstants {
     public static final String MASTER_LOCK = "lock:consume:master";
     public static final String SLAVE_LOCK = "lock:consume:slave:";
 
+    public static final String QUEUE_PREFIX = "queue:"; // 就绪队列按分片编号命名, queue:1, queue:2 ...
+    public static final String QUEUE_NUMS_KEY = "queue:nums"; // redis中保存的分片数, 只增不减, 运行中扩容后各节点以此为准
+
     public static final String QUEUE_ONE = "queue:1";
 
     public static final String QUEUE_TWO = "queue:2";
@@ -29,15 +35,30 @@ public enum CommonConstants {
 
     public static final String RESULT_QUEUE = "queue:result";
 
-    public static final String EXECUTE_HASH = "hash:execute";
-    public static final String HEART_HASH = "hash:heart";
+    public static final String EXECUTE_SET = "set:execute:";
+    public static final String PAYLOAD_HASH = "hash:payload"; // 任务ID -> 任务数据
+    public static final String RESULT_HASH = "hash:result"; // 任务ID -> 任务结果
+    public static final String TASK_ID_SPLIT = "-";
+    public static final String LEASE_INDEX = "zset:lease"; // 节点^codewave^任务ID -> 租约到期时间
+    public static final String TIMER_INDEX = "zset:timer"; // 延时任务ID -> 投放时间
+    public static final String TIMER_HASH = "hash:timer"; // 延时任务ID -> 进入就绪队列后的score
+    public static final String ATTEMPTS_HASH = "hash:attempts"; // 任务ID -> 失败次数
+    public static final String DEAD_INDEX = "zset:dead"; // 死信任务ID -> 进入死信的时间
+    public static final String DEAD_HASH = "hash:dead"; // 死信任务ID -> 最后一次失败的原因
+    public static final String HEART_INDEX = "zset:heart"; // 节点 -> 最近一次心跳的时间戳
+    public static final String THROUGHPUT_HASH = "hash:throughput"; // slave随心跳上报的任务完成速率, 单位: 个/秒
+    public static final String READY_TOPIC = "topic:ready"; // master投放任务后发布的唤醒消息
     public static final String HASH_VALUE_SPLIT = "^codewave^";
     public static final String HASH_VALUE_SPLIT_ESCAPE = "\\^codewave\\^";
 
     public static final String LEADER_LOCK = "leader:lock";
     public static final String LEADER_NAME = "leader:name";
 
-    public static final String REBALANCE_MAP = "rebalance:nodeQueueMap"; // Redis中保存节点分配关系的hash key
+    // 分配关系与版本号在同一个lua脚本中修改, 使用相同的hash tag保证在redis cluster中位于同一个slot
+    public static final String REBALANCE_MAP = "{rebalance}:nodeQueueMap"; // Redis中保存节点分配关系的hash key
+    public static final String REBALANCE_VERSION = "{rebalance}:version"; // 分配关系的版本号, 每次重新分配后加一
+    public static final String REBALANCE_TOPIC = "rebalance:topic"; // 重新分配后发布版本号, 通知slave刷新本地缓存
+    public static final int REBALANCE_RETRY = 3; // 重新分配时版本号冲突的最大重试次数
 
     public static String HASHRING_KEY = "rebalance:hashRingQueues"; // Redis key for the hash ring
 
@@ -45,14 +66,36 @@ public enum CommonConstants {
 
     public static final String CONSISTENT_HASH = "consistent-hash";
 
+    public static final String LOAD_AWARE = "load-aware";
+    public static final double THROUGHPUT_SMOOTHING = 0.5; // 完成速率的指数平滑系数, 越大越偏向最近一个心跳周期
+    public static final double LOAD_IMBALANCE_THRESHOLD = 0.2; // 预计清空时间改善超过此比例时leader才重新分配, 避免频繁移动队列
+    public static final int VIRTUAL_NODES = 160; // 一致性哈希环上每个节点默认的虚拟节点数
+
     public static final String REDIS_FORMAT = "%s%s";
     public static final String EMPTY_STRING = "";
     public static final String REDIS_SPLIT = ":";
+    public static final String HASH_TAG_START = "{";
+    public static final String HASH_TAG_END = "}";
+    public static final Charset PAYLOAD_CHARSET = StandardCharsets.ISO_8859_1; // 任务数据按字节映射为字符串, 二进制数据写入redis前后不变
+    public static final int COMPRESS_THRESHOLD = 0; // 默认不压缩任务数据
+    public static final long LEASE_TIMEOUT = 0; // 默认不启用任务租约, 任务只在slave心跳超时后回收
+    public static final int LEASE_REAP_BATCH = 500; // leader回收过期租约时每次lua脚本调用处理的最大任务数
+    public static final int TIMER_PROMOTE_BATCH = 500; // leader将到期的延时任务移入就绪队列时每次lua脚本调用处理的最大任务数
+    public static final int MAX_ATTEMPTS = 3; // 任务最多执行的次数, 第MAX_ATTEMPTS次失败后进入死信
+    public static final String NODE_DOWN_CAUSE = "quarantined: slave went down while executing the task"; // 宕机恢复时隔离任务的原因
+    public static final String LEASE_EXPIRED_CAUSE = "quarantined: lease expired while executing the task"; // 回收租约时隔离任务的原因
+    public static final double RETRY_JITTER = 0.5; // 重试等待时间在[1 - RETRY_JITTER, 1]倍退避时间内随机, 避免大量任务同时重试
 
     public static final long MILLISECOND = 1000;
     public static final long HEARTBEAT_INTERVAL = 30 * MILLISECOND;
     public static final long MIN_HEARTBEAT_INTERVAL = 10 * MILLISECOND;
+    public static final long TIMER_INTERVAL = MILLISECOND; // leader检查到期延时任务的间隔
+    public static final long MIN_TIMER_INTERVAL = 100;
+    public static final long RETRY_BACKOFF = MILLISECOND; // 第一次重试前的等待时间, 之后每次翻倍
+    public static final long MAX_RETRY_BACKOFF = 60 * MILLISECOND;
     public static final int EXPIRATION_COUNT = 6;
+    public static final long BLOCKING_POLL_INTERVAL = MILLISECOND; // 阻塞消费时单次等待唤醒的最长时间, 防止丢失消息后一直等待
+    public static final long QUEUE_SIZE_SNAPSHOT_TTL = 200; // 窃取任务时队列长度快照的缓存时间, 单位毫秒
     public static final int MIN_EXPIRATION_COUNT = 3;
     public static final int FIRST = 1;
     public static final int SECOND = 2;
@@ -69,4 +112,7 @@ public enum CommonConstants {
     public static final boolean FALSE = false;
     public static final boolean TRUE = true;
     public static final int QUEUE_NUMS = 1;
+    public static final int SEND_BATCH_SIZE = 1000; // 批量投放任务时每个管道包含的任务数
+    public static final int RUNTIME_MAX_CONCURRENCY = 256; // SlaveRuntime默认最大并发执行任务数
+    public static final int RUNTIME_PREFETCH = 32; // SlaveRuntime默认单次批量获取的最大任务数
 }
@@ -0,0 +1,16 @@
+package edu.vt.ranhuo.asynccore.enums;
+
+/**
+ * redis key的布局方式
+ */
+public enum KeyLayout {
+    /**
+     * 单机/哨兵模式, 每个节点只有一个执行队列, 所有分片共用一个结果队列
+     */
+    STANDALONE,
+    /**
+     * redis cluster模式, 每个分片以自身队列名作为hash tag, 节点在该分片上的执行队列和该分片的结果队列与就绪队列位于同一个slot,
+     * 单个分片上的lua脚本可以原子执行, 不同分片分布在不同的slot上
+     */
+    CLUSTER
+}
@@ -0,0 +1,369 @@
+package edu.vt.ranhuo.asynccore.enums;
+
+/**
+ * 服务端执行的lua脚本, 所有涉及的key都通过KEYS传入
+ */
+public enum LuaScripts {
+    ;
+
+    /**
+     * 将任务ID按score写入就绪队列, 任务数据写入payload hash, 返回新增的任务数
+     * KEYS[1]: 就绪队列  KEYS[2]: payload hash
+     * ARGV: 任务ID1, score1, 任务数据1, 任务ID2, score2, 任务数据2 ...
+     */
+    public static final String SEND =
+            "local added = 0 " +
+            "for i = 1, #ARGV, 3 do " +
+            "    added = added + redis.call('zadd', KEYS[1], ARGV[i + 1], ARGV[i]) " +
+            "    redis.call('hset', KEYS[2], ARGV[i], ARGV[i + 2]) " +
+            "end " +
+            "return added";
+
+    /**
+     * 从就绪队列中删除任务ID及其任务数据, 任务不在就绪队列中(已被slave取出)时不删除任务数据
+     * KEYS[1]: 就绪队列  KEYS[2]: payload hash
+     * ARGV[1]: 任务ID
+     */
+    public static final String DELETE =
+            "if redis.call('zrem', KEYS[1], ARGV[1]) == 0 then " +
+            "    return 0 " +
+            "end " +
+            "redis.call('hdel', KEYS[2], ARGV[1]) " +
+            "return 1";
+
+    /**
+     * 将延时任务ID写入定时索引, 到期后进入就绪队列时的score写入timer hash, 任务数据写入payload hash, 返回新增的任务数
+     * KEYS[1]: 定时索引  KEYS[2]: timer hash  KEYS[3]: payload hash
+     * ARGV[1]: 投放时间  ARGV[2..n]: 任务ID1, score1, 任务数据1, 任务ID2, score2, 任务数据2 ...
+     */
+    public static final String SCHEDULE =
+            "local added = 0 " +
+            "for i = 2, #ARGV, 3 do " +
+            "    added = added + redis.call('zadd', KEYS[1], ARGV[1], ARGV[i]) " +
+            "    redis.call('hset', KEYS[2], ARGV[i], ARGV[i + 1]) " +
+            "    redis.call('hset', KEYS[3], ARGV[i], ARGV[i + 2]) " +
+            "end " +
+            "return added";
+
+    /**
+     * 从定时索引中删除尚未到期的延时任务(包括等待重试的任务)及其score、任务数据和失败次数, 已进入就绪队列的任务不处理
+     * KEYS[1]: 定时索引  KEYS[2]: timer hash  KEYS[3]: payload hash  KEYS[4]: attempts hash
+     * ARGV[1]: 任务ID
+     */
+    public static final String UNSCHEDULE =
+            "if redis.call('zrem', KEYS[1], ARGV[1]) == 0 then " +
+            "    return 0 " +
+            "end " +
+            "redis.call('hdel', KEYS[2], ARGV[1]) " +
+            "redis.call('hdel', KEYS[3], ARGV[1]) " +
+            "redis.call('hdel', KEYS[4], ARGV[1]) " +
+            "return 1";
+
+    /**
+     * 将到期的延时任务从定时索引移入就绪队列, 按投放时指定的score排序, 期间被删除的任务跳过
+     * timer hash中没有score的任务(等待重试的任务)进入就绪队列最高优先级
+     * KEYS[1]: 定时索引  KEYS[2]: timer hash  KEYS[3]: 就绪队列
+     * ARGV[1]: 当前时间  ARGV[2..n]: 任务ID
+     * 返回移入就绪队列的任务数
+     */
+    public static final String PROMOTE =
+            "local promoted = 0 " +
+            "local top = nil " +
+            "for i = 2, #ARGV do " +
+            "    local due = redis.call('zscore', KEYS[1], ARGV[i]) " +
+            "    if due and tonumber(due) <= tonumber(ARGV[1]) then " +
+            "        redis.call('zrem', KEYS[1], ARGV[i]) " +
+            "        local score = redis.call('hget', KEYS[2], ARGV[i]) " +
+            "        if not score then " +
+            "            top = top or redis.call('zrange', KEYS[3], -1, -1, 'withscores')[2] or 0 " +
+            "            score = top " +
+            "        end " +
+            "        redis.call('hdel', KEYS[2], ARGV[i]) " +
+            "        redis.call('zadd', KEYS[3], score, ARGV[i]) " +
+            "        promoted = promoted + 1 " +
+            "    end " +
+            "end " +
+            "return promoted";
+
+    /**
+     * 从就绪队列中弹出最高优先级任务, 并存放至节点的执行队列中, 租约到期时间大于0时同时写入租约索引
+     * 返回 {任务ID, 任务数据}, payload hash中没有数据时(升级前写入的任务)任务ID即为任务数据
+     * KEYS[1]: 就绪队列  KEYS[2]: 节点执行队列set  KEYS[3]: payload hash  KEYS[4]: 租约索引
+     * ARGV[1]: 租约到期时间, 0为不启用  ARGV[2]: 租约成员前缀(节点^codewave^)
+     */
+    public static final String CLAIM =
+            "local task = redis.call('zpopmax', KEYS[1]) " +
+            "if #task == 0 then " +
+            "    return {} " +
+            "end " +
+            "redis.call('sadd', KEYS[2], task[1]) " +
+            "if tonumber(ARGV[1]) > 0 then " +
+            "    redis.call('zadd', KEYS[4], ARGV[1], ARGV[2] .. task[1]) " +
+            "end " +
+            "return {task[1], redis.call('hget', KEYS[3], task[1]) or task[1]}";
+
+    /**
+     * 从多个就绪队列中按优先级从高到低取出至多N个任务, 并存放至节点的执行队列中, 租约同CLAIM
+     * KEYS[1..n-3]: 就绪队列  KEYS[n-2]: 节点执行队列set  KEYS[n-1]: payload hash  KEYS[n]: 租约索引
+     * ARGV[1]: 最大任务数  ARGV[2]: 租约到期时间, 0为不启用  ARGV[3]: 租约成员前缀
+     * 返回 任务ID1, 任务数据1, 任务ID2, 任务数据2 ...
+     */
+    public static final String CLAIM_BATCH =
+            "local max = tonumber(ARGV[1]) " +
+            "local lease = tonumber(ARGV[2]) " +
+            "local candidates = {} " +
+            "for i = 1, #KEYS - 3 do " +
+            "    local entries = redis.call('zrange', KEYS[i], -max, -1, 'withscores') " +
+            "    for j = 1, #entries, 2 do " +
+            "        candidates[#candidates + 1] = {i, entries[j], tonumber(entries[j + 1])} " +
+            "    end " +
+            "end " +
+            "table.sort(candidates, function(a, b) return a[3] > b[3] end) " +
+            "local tasks = {} " +
+            "for k = 1, math.min(max, #candidates) do " +
+            "    local id = candidates[k][2] " +
+            "    redis.call('zrem', KEYS[candidates[k][1]], id) " +
+            "    redis.call('sadd', KEYS[#KEYS - 2], id) " +
+            "    if lease > 0 then " +
+            "        redis.call('zadd', KEYS[#KEYS], lease, ARGV[3] .. id) " +
+            "    end " +
+            "    tasks[#tasks + 1] = id " +
+            "    tasks[#tasks + 1] = redis.call('hget', KEYS[#KEYS - 1], id) or id " +
+            "end " +
+            "return tasks";
+
+    /**
+     * 从结果队列头部取出至多N个任务ID, 并存放至节点的执行队列中
+     * KEYS[1]: 结果队列  KEYS[2]: 节点执行队列set  KEYS[3]: result hash
+     * ARGV[1]: 最大结果数
+     * 返回 任务ID1, 任务结果1, 任务ID2, 任务结果2 ...
+     */
+    public static final String DRAIN =
+            "local ids = redis.call('lrange', KEYS[1], 0, tonumber(ARGV[1]) - 1) " +
+            "local results = {} " +
+            "if #ids == 0 then " +
+            "    return results " +
+            "end " +
+            "redis.call('ltrim', KEYS[1], #ids, -1) " +
+            "for i = 1, #ids do " +
+            "    redis.call('sadd', KEYS[2], ids[i]) " +
+            "    results[#results + 1] = ids[i] " +
+            "    results[#results + 1] = redis.call('hget', KEYS[3], ids[i]) or ids[i] " +
+            "end " +
+            "return results";
+
+    /**
+     * 批量提交任务结果: 任务ID存放至结果队列, 结果写入result hash, 删除执行队列中的任务ID、payload hash中的任务数据、租约以及失败次数
+     * KEYS[1]: 结果队列  KEYS[2]: 节点执行队列set  KEYS[3]: result hash  KEYS[4]: payload hash  KEYS[5]: 租约索引  KEYS[6]: attempts hash
+     * ARGV[1]: 租约成员前缀  ARGV[2..n]: 任务ID1, 结果1, 任务ID2, 结果2 ...
+     */
+    public static final String COMMIT_BATCH =
+            "for i = 2, #ARGV, 2 do " +
+            "    redis.call('rpush', KEYS[1], ARGV[i]) " +
+            "    redis.call('hset', KEYS[3], ARGV[i], ARGV[i + 1]) " +
+            "    redis.call('srem', KEYS[2], ARGV[i]) " +
+            "    redis.call('hdel', KEYS[4], ARGV[i]) " +
+            "    redis.call('zrem', KEYS[5], ARGV[1] .. ARGV[i]) " +
+            "    redis.call('hdel', KEYS[6], ARGV[i]) " +
+            "end " +
+            "return (#ARGV - 1) / 2";
+
+    /**
+     * 同COMMIT_BATCH, 只有执行队列中存在的任务才会提交, 返回实际提交的任务数
+     * cluster模式下任务所在分片未知时对每个分片执行一次, 任务只会在所属分片上提交
+     * 启用租约时租约过期的任务已被放回就绪队列, 之后的提交同样会被忽略, 避免重复的结果
+     * KEYS[1]: 分片的结果队列  KEYS[2]: 节点在该分片上的执行队列set  KEYS[3]: 分片的result hash  KEYS[4]: 分片的payload hash  KEYS[5]: 分片的租约索引
+     * KEYS[6]: 分片的attempts hash
+     * ARGV[1]: 租约成员前缀  ARGV[2..n]: 任务ID1, 结果1, 任务ID2, 结果2 ...
+     */
+    public static final String COMMIT_OWNED =
+            "local committed = 0 " +
+            "for i = 2, #ARGV, 2 do " +
+            "    if redis.call('srem', KEYS[2], ARGV[i]) == 1 then " +
+            "        redis.call('rpush', KEYS[1], ARGV[i]) " +
+            "        redis.call('hset', KEYS[3], ARGV[i], ARGV[i + 1]) " +
+            "        redis.call('hdel', KEYS[4], ARGV[i]) " +
+            "        redis.call('zrem', KEYS[5], ARGV[1] .. ARGV[i]) " +
+            "        redis.call('hdel', KEYS[6], ARGV[i]) " +
+            "        committed = committed + 1 " +
+            "    end " +
+            "end " +
+            "return committed";
+
+    /**
+     * master处理完结果后删除执行队列中的任务ID及其在result hash中的结果, 返回执行队列中存在的任务数
+     * KEYS[1]: 节点执行队列set  KEYS[2]: result hash
+     * ARGV: 任务ID1, 任务ID2 ...
+     */
+    public static final String COMMIT_RESULT =
+            "local removed = 0 " +
+            "for i = 1, #ARGV do " +
+            "    if redis.call('srem', KEYS[1], ARGV[i]) == 1 then " +
+            "        redis.call('hdel', KEYS[2], ARGV[i]) " +
+            "        removed = removed + 1 " +
+            "    end " +
+            "end " +
+            "return removed";
+
+    /**
+     * 任务执行失败: 从执行队列中移除并删除租约, 失败次数加一, 未达到最大执行次数时按指数退避写入定时索引等待重新投放,
+     * 否则进入死信索引并记录失败原因, 任务数据保留在payload hash中
+     * 退避时间为 min(初始退避 * 2^(失败次数 - 1), 最大退避) * 随机系数
+     * KEYS[1]: 节点执行队列set  KEYS[2]: attempts hash  KEYS[3]: 定时索引  KEYS[4]: 死信索引  KEYS[5]: dead hash  KEYS[6]: 租约索引
+     * ARGV[1]: 任务ID  ARGV[2]: 租约成员  ARGV[3]: 最大执行次数  ARGV[4]: 当前时间  ARGV[5]: 初始退避  ARGV[6]: 最大退避
+     * ARGV[7]: 随机系数  ARGV[8]: 失败原因
+     * 返回失败次数, 进入死信时返回0, 任务不在执行队列中(已提交或租约过期被回收)时返回-1
+     */
+    public static final String FAIL =
+            "if redis.call('srem', KEYS[1], ARGV[1]) == 0 then " +
+            "    return -1 " +
+            "end " +
+            "redis.call('zrem', KEYS[6], ARGV[2]) " +
+            "local attempts = redis.call('hincrby', KEYS[2], ARGV[1], 1) " +
+            "if attempts >= tonumber(ARGV[3]) then " +
+            "    redis.call('zadd', KEYS[4], ARGV[4], ARGV[1]) " +
+            "    redis.call('hset', KEYS[5], ARGV[1], ARGV[8]) " +
+            "    return 0 " +
+            "end " +
+            "local delay = math.min(tonumber(ARGV[5]) * 2 ^ (attempts - 1), tonumber(ARGV[6])) * tonumber(ARGV[7]) " +
+            "redis.call('zadd', KEYS[3], tonumber(ARGV[4]) + math.floor(delay), ARGV[1]) " +
+            "return attempts";
+
+    /**
+     * 将死信任务重新投放至就绪队列最高优先级, 并清空失败次数
+     * KEYS[1]: 死信索引  KEYS[2]: dead hash  KEYS[3]: attempts hash  KEYS[4]: 就绪队列
+     * ARGV[1]: 任务ID
+     */
+    public static final String DEAD_REDRIVE =
+            "if redis.call('zrem', KEYS[1], ARGV[1]) == 0 then " +
+            "    return 0 " +
+            "end " +
+            "redis.call('hdel', KEYS[2], ARGV[1]) " +
+            "redis.call('hdel', KEYS[3], ARGV[1]) " +
+            "local top = redis.call('zrange', KEYS[4], -1, -1, 'withscores') " +
+            "redis.call('zadd', KEYS[4], top[2] or 0, ARGV[1]) " +
+            "return 1";
+
+    /**
+     * 删除死信任务及其失败原因、失败次数和任务数据
+     * KEYS[1]: 死信索引  KEYS[2]: dead hash  KEYS[3]: attempts hash  KEYS[4]: payload hash
+     * ARGV[1]: 任务ID
+     */
+    public static final String DEAD_DELETE =
+            "if redis.call('zrem', KEYS[1], ARGV[1]) == 0 then " +
+            "    return 0 " +
+            "end " +
+            "redis.call('hdel', KEYS[2], ARGV[1]) " +
+            "redis.call('hdel', KEYS[3], ARGV[1]) " +
+            "redis.call('hdel', KEYS[4], ARGV[1]) " +
+            "return 1";
+
+    /**
+     * 续约: 租约仍存在时将到期时间更新为ARGV[1], 已被回收(或已提交)的任务不再写入, 返回续约成功的任务数
+     * KEYS[1]: 租约索引
+     * ARGV[1]: 新的到期时间  ARGV[2]: 租约成员前缀  ARGV[3..n]: 任务ID
+     */
+    public static final String LEASE_RENEW =
+            "local renewed = 0 " +
+            "for i = 3, #ARGV do " +
+            "    if redis.call('zscore', KEYS[1], ARGV[2] .. ARGV[i]) then " +
+            "        redis.call('zadd', KEYS[1], ARGV[1], ARGV[2] .. ARGV[i]) " +
+            "        renewed = renewed + 1 " +
+            "    end " +
+            "end " +
+            "return renewed";
+
+    /**
+     * 回收过期租约: 租约仍未过期(期间已续约)的任务跳过, 过期的任务删除租约, 仍在执行队列中时失败次数加一,
+     * 未达到最大执行次数时放回就绪队列最高优先级, 否则隔离至死信索引, 避免反复卡住slave的任务循环投放
+     * 节点宕机后执行队列已被leader处理的任务只删除租约
+     * KEYS[1]: 租约索引  KEYS[2]: 节点执行队列set  KEYS[3]: 就绪队列  KEYS[4]: attempts hash  KEYS[5]: 死信索引  KEYS[6]: dead hash
+     * ARGV[1]: 当前时间  ARGV[2]: 租约成员前缀  ARGV[3]: 最大执行次数  ARGV[4]: 隔离原因  ARGV[5..n]: 任务ID
+     * 返回放回就绪队列的任务数
+     */
+    public static final String LEASE_REAP =
+            "local top = redis.call('zrange', KEYS[3], -1, -1, 'withscores') " +
+            "local score = top[2] or 0 " +
+            "local requeued = 0 " +
+            "for i = 5, #ARGV do " +
+            "    local member = ARGV[2] .. ARGV[i] " +
+            "    local deadline = redis.call('zscore', KEYS[1], member) " +
+            "    if deadline and tonumber(deadline) <= tonumber(ARGV[1]) then " +
+            "        redis.call('zrem', KEYS[1], member) " +
+            "        if redis.call('srem', KEYS[2], ARGV[i]) == 1 then " +
+            "            if redis.call('hincrby', KEYS[4], ARGV[i], 1) >= tonumber(ARGV[3]) then " +
+            "                redis.call('zadd', KEYS[5], ARGV[1], ARGV[i]) " +
+            "                redis.call('hset', KEYS[6], ARGV[i], ARGV[4]) " +
+            "            else " +
+            "                redis.call('zadd', KEYS[3], score, ARGV[i]) " +
+            "                requeued = requeued + 1 " +
+            "            end " +
+            "        end " +
+            "    end " +
+            "end " +
+            "return requeued";
+
+    /**
+     * 宕机slave执行中的任务: 失败次数加一, 未达到最大执行次数时放回就绪队列最高优先级, 否则隔离至死信索引
+     * 导致slave崩溃的任务不会被立即重新获取, 逐个拖垮其余节点
+     * KEYS[1]: 就绪队列  KEYS[2]: attempts hash  KEYS[3]: 死信索引  KEYS[4]: dead hash
+     * ARGV[1]: 当前时间  ARGV[2]: 最大执行次数  ARGV[3]: 隔离原因  ARGV[4..n]: 任务ID
+     * 返回隔离的任务数
+     */
+    public static final String RECOVER =
+            "local top = redis.call('zrange', KEYS[1], -1, -1, 'withscores') " +
+            "local score = top[2] or 0 " +
+            "local quarantined = 0 " +
+            "for i = 4, #ARGV do " +
+            "    if redis.call('hincrby', KEYS[2], ARGV[i], 1) >= tonumber(ARGV[2]) then " +
+            "        redis.call('zadd', KEYS[3], ARGV[1], ARGV[i]) " +
+            "        redis.call('hset', KEYS[4], ARGV[i], ARGV[3]) " +
+            "        quarantined = quarantined + 1 " +
+            "    else " +
+            "        redis.call('zadd', KEYS[1], score, ARGV[i]) " +
+            "    end " +
+            "end " +
+            "return quarantined";
+
+    /**
+     * 节点的心跳早于截止时间时将其移出心跳索引, 返回1; 期间节点重新发送了心跳则保持不变, 返回0
+     * 多个leader交替或节点恢复心跳时, 只有移出索引的一方执行宕机处理
+     * KEYS[1]: 心跳索引  ARGV[1]: 节点  ARGV[2]: 截止时间
+     */
+    public static final String HEART_EXPIRE =
+            "local score = redis.call('zscore', KEYS[1], ARGV[1]) " +
+            "if score and tonumber(score) < tonumber(ARGV[2]) then " +
+            "    return redis.call('zrem', KEYS[1], ARGV[1]) " +
+            "end " +
+            "return 0";
+
+    /**
+     * 将分片数提高至指定值, 当前值更大时保持不变, 分片只增不减
+     * KEYS[1]: 分片数  ARGV[1]: 目标分片数
+     * 返回生效的分片数
+     */
+    public static final String QUEUE_GROW =
+            "local current = tonumber(redis.call('get', KEYS[1]) or '0') " +
+            "local target = tonumber(ARGV[1]) " +
+            "if target > current then " +
+            "    redis.call('set', KEYS[1], target) " +
+            "    return target " +
+            "end " +
+            "return current";
+
+    /**
+     * 以指定的代数原子地替换全部分配关系, 代数与当前版本号不一致时说明期间已有其他节点完成了重新分配, 放弃本次写入
+     * KEYS[1]: 分配关系hash  KEYS[2]: 版本号
+     * ARGV[1]: 计算分配关系时读取的版本号  ARGV[2..n]: 节点1, 队列1, 节点2, 队列2 ...
+     * 返回新的版本号, 代数冲突时返回-1
+     */
+    public static final String REBALANCE_PUBLISH =
+            "if tonumber(redis.call('get', KEYS[2]) or '0') ~= tonumber(ARGV[1]) then " +
+            "    return -1 " +
+            "end " +
+            "redis.call('del', KEYS[1]) " +
+            "for i = 2, #ARGV, 2 do " +
+            "    redis.call('hset', KEYS[1], ARGV[i], ARGV[i + 1]) " +
+            "end " +
+            "return redis.call('incr', KEYS[2])";
+}
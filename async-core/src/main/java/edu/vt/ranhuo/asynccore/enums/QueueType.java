@@ -5,6 +5,9 @@ import lombok.Getter;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * 前九个分片的别名, 分片数超过9时通过分片编号访问, 见ITaskContext.getQueue(int)
+ */
 @Getter
 public enum QueueType {
     ONE(CommonConstants.QUEUE_ONE),
@@ -23,6 +26,13 @@ public enum QueueType {
         this.queue = queue;
     }
 
+    /**
+     * 分片编号, 从1开始
+     */
+    public int getShard() {
+        return ordinal() + 1;
+    }
+
 
     // 根据输入的数字返回枚举对象列表
     public static List<QueueType> getEnumsUpTo(int num) {
@@ -2,5 +2,7 @@ package edu.vt.ranhuo.asynccore.enums;
 
 public enum Status {
     SUCCESS,
-    NON_EXISTENT;
+    NON_EXISTENT,
+    RETRY, // 任务将在退避时间后重新投放
+    DEAD; // 任务已达到最大执行次数, 进入死信
 }
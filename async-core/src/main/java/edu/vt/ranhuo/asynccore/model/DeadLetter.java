@@ -0,0 +1,27 @@
+package edu.vt.ranhuo.asynccore.model;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * 达到最大执行次数后进入死信的任务, 任务数据保留在payload hash中, 直到master重新投放或删除
+ */
+@Getter
+@ToString
+public class DeadLetter<T> {
+    private final Task<T> task;
+    private final String cause; // 最后一次失败的原因
+    private final int attempts; // 已执行的次数
+    private final long deadAt; // 进入死信的时间
+
+    public DeadLetter(Task<T> task, String cause, int attempts, long deadAt) {
+        this.task = task;
+        this.cause = cause;
+        this.attempts = attempts;
+        this.deadAt = deadAt;
+    }
+
+    public <R> DeadLetter<R> withTask(Task<R> task) {
+        return new DeadLetter<>(task, cause, attempts, deadAt);
+    }
+}
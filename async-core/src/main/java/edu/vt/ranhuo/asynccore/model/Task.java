@@ -0,0 +1,60 @@
+package edu.vt.ranhuo.asynccore.model;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.TASK_ID_SPLIT;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.ZERO;
+
+/**
+ * 任务信封, 队列、执行队列和结果队列中只保存任务ID, 任务数据只在payload hash中保存一份
+ * slave消费时payload为任务数据, master消费时payload为任务结果, 两者的ID相同
+ * 相同ID的任务视为同一个任务
+ */
+@Getter
+@ToString
+@EqualsAndHashCode(of = "id")
+public class Task<T> {
+    private static final String NODE = Long.toString(ThreadLocalRandom.current().nextLong() >>> 24, 36); // 进程内随机, 区分不同进程生成的ID
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final String id;
+    private final T payload;
+
+    public Task(String id, T payload) {
+        this.id = id;
+        this.payload = payload;
+    }
+
+    /**
+     * 生成新的任务ID, 格式为 分片-毫秒时间戳-进程标识-序号, 时间戳与序号均为36进制
+     * 以投放时的分片开头, 按ID删除时可以直接定位分片
+     */
+    public static String newId(int shard) {
+        return String.valueOf(shard) + TASK_ID_SPLIT + Long.toString(System.currentTimeMillis(), 36) + TASK_ID_SPLIT
+                + NODE + TASK_ID_SPLIT + Long.toString(SEQUENCE.incrementAndGet(), 36);
+    }
+
+    /**
+     * ID中记录的分片编号, 不是由newId生成的ID(如升级前写入的任务数据)返回0
+     */
+    public static int shardOf(String id) {
+        int end = id.indexOf(TASK_ID_SPLIT);
+        if (end <= 0) {
+            return ZERO;
+        }
+        try {
+            return Integer.parseInt(id.substring(ZERO, end));
+        } catch (NumberFormatException e) {
+            return ZERO;
+        }
+    }
+
+    public <R> Task<R> withPayload(R payload) {
+        return new Task<>(id, payload);
+    }
+}
@@ -25,6 +25,11 @@ public interface LeaderService extends Initialize, Closeable {
 
     List<Integer> getQueuesForWorker(String workerId);
 
+    /**
+     * 运行中扩容分片, 写入新的分片数后立即重新分配, slave收到rebalance通知后开始消费新分片
+     */
+    void growQueues(int queueNums);
+
     /**
      * 获取所有活跃节点
      */
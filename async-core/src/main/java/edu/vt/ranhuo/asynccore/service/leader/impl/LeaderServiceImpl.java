@@ -1,6 +1,7 @@
 package edu.vt.ranhuo.asynccore.service.leader.impl;
 
 import edu.vt.ranhuo.asynccore.config.TaskContext;
+import edu.vt.ranhuo.asynccore.enums.KeyLayout;
 import edu.vt.ranhuo.asynccore.enums.QueueType;
 import edu.vt.ranhuo.asynccore.exceptions.HashPrefixException;
 import edu.vt.ranhuo.asynccore.lambda.ProcessLambda;
@@ -8,14 +9,20 @@ import edu.vt.ranhuo.asynccore.service.leader.LeaderService;
 import edu.vt.ranhuo.asynccore.service.rebalance.RebalanceService;
 import edu.vt.ranhuo.asynccore.service.rebalance.RebalanceStrategyFactory;
 import edu.vt.ranhuo.asynccore.service.rebalance.impl.RoundRebalanceServiceImpl;
+import edu.vt.ranhuo.asynccore.service.task.TaskService;
+import edu.vt.ranhuo.asynccore.service.task.impl.TaskServiceImpl;
 import edu.vt.ranhuo.asynccore.utils.RedissonUtils;
 import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RScript;
 
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
 
 import static edu.vt.ranhuo.asynccore.enums.CommonConstants.*;
+import static edu.vt.ranhuo.asynccore.enums.LuaScripts.HEART_EXPIRE;
+import static edu.vt.ranhuo.asynccore.enums.LuaScripts.RECOVER;
 
 @Slf4j
 public class LeaderServiceImpl implements LeaderService {
@@ -25,16 +32,30 @@ public class LeaderServiceImpl implements LeaderService {
     private final RedissonUtils redissonUtils;
     private final Thread heartThread;
     private final Thread leaderThread;
+    private final Thread timerThread;
+    private volatile boolean leading; // 持有leader锁期间为true, 只有leader移动到期的延时任务
     private final String nodeInfo;
     private RebalanceService rebalancer;
+    private final TaskService<String, String> taskService;
+    private final Optional<LongSupplier> completedTasks; // 节点累计完成的任务数, 只有slave上报
+    private long lastCompleted;
+    private long lastReportAt;
+    private double throughput;
 
     public LeaderServiceImpl(TaskContext context, String nodeInfo) {
+        this(context, nodeInfo, Optional.empty());
+    }
+
+    public LeaderServiceImpl(TaskContext context, String nodeInfo, Optional<LongSupplier> completedTasks) {
         this.nodeInfo = nodeInfo;
         this.context = context;
+        this.completedTasks = completedTasks;
         this.heartThread = new Thread(() -> process(this::heart));
         this.leaderThread = new Thread(this::seize);
+        this.timerThread = new Thread(() -> process(this::promote, context.timerInterval()));
         this.redissonUtils = RedissonUtils.getInstance(Optional.empty());
-        this.rebalancer = RebalanceStrategyFactory.getRebalanceStrategy(context.getConfig().getRebalanceStrategy(), redissonUtils.getRedisson());
+        this.rebalancer = RebalanceStrategyFactory.getRebalanceStrategy(context);
+        this.taskService = new TaskServiceImpl(context);
         init();
     }
 
@@ -42,20 +63,34 @@ public class LeaderServiceImpl implements LeaderService {
     public void init() {
         this.heartThread.start();
         this.leaderThread.start();
+        this.timerThread.start();
     }
 
     @Override
     public void heart() {
         final long timestamp = context.timestamp();
         try {
-            redissonUtils.hset(context.heartHash(), nodeInfo, timestamp);
-            log.info("send heart, hashkey: {}, nodeInfo: {}, timestamp: {}", context.heartHash(), nodeInfo, timestamp);
+            context.getRedissonUtils().zadd(context.heartIndex(), timestamp, nodeInfo);
+            log.info("send heart, heartIndex: {}, nodeInfo: {}, timestamp: {}", context.heartIndex(), nodeInfo, timestamp);
+            completedTasks.ifPresent(completed -> reportThroughput(completed.getAsLong(), timestamp));
+            context.refreshQueueNums();
         } catch (Exception e) {
             log.error("Failed to send heart due to Redis exception: {}", e.getMessage(), e);
         }
     }
 
 
+    // 以两次心跳之间完成的任务数计算速率并做指数平滑, 第一次心跳只记录基准值
+    private void reportThroughput(long completed, long timestamp) {
+        if (lastReportAt > 0 && timestamp > lastReportAt) {
+            double rate = (completed - lastCompleted) * (double) MILLISECOND / (timestamp - lastReportAt);
+            throughput = throughput == 0 ? rate : THROUGHPUT_SMOOTHING * rate + (1 - THROUGHPUT_SMOOTHING) * throughput;
+            redissonUtils.hset(context.throughputHash(), nodeInfo, throughput);
+        }
+        lastCompleted = completed;
+        lastReportAt = timestamp;
+    }
+
     @Override
     public void seize() {
         redissonUtils.lock(context.leaderLock(), Optional.empty(), (t) -> {
@@ -69,9 +104,12 @@ public class LeaderServiceImpl implements LeaderService {
         try {
             redissonUtils.set(context.leaderName(), nodeInfo);
             log.info("leader login was successful, key: {}, value: {}", context.leaderName(), nodeInfo);
+            leading = true;
             process(this::listener);
         } catch (Exception e) {
             log.error("Failed to listen due to Redis exception: {}", e.getMessage(), e);
+        } finally {
+            leading = false;
         }
     }
 
@@ -82,15 +120,29 @@ public class LeaderServiceImpl implements LeaderService {
     }
 
 
+    @Override
+    public void growQueues(int queueNums) {
+        int previous = context.getQueueNums();
+        int grown = context.growQueueNums(queueNums);
+        rebalancer.startRebalance(getActiveSlaveNode(), grown);
+        log.info("grow queues finished, key: {}, queueNums: {} -> {}", context.queueNumsKey(), previous, grown);
+    }
+
+    //心跳索引中截止时间之后的成员即为活跃节点, 只读取活跃部分, 已过期但尚未被leader处理的节点不包含在内
     @Override
     public Set<String> getActiveNodeInfo() {
-        Map<String, Long> heartMap = redissonUtils.hgetall(context.heartHash());
-        return heartMap.keySet();
+        Collection<RedissonUtils.ScoredEntryEx<String>> active =
+                context.getRedissonUtils().zrangeByScore(context.heartIndex(), heartDeadline(), Double.POSITIVE_INFINITY);
+        return active.stream().map(RedissonUtils.ScoredEntryEx::getValue).collect(Collectors.toSet());
     }
 
     private Set<String> getActiveSlaveNode() {
-        Map<String, Long> heartMap = redissonUtils.hgetall(context.heartHash());
-        return heartMap.keySet().stream().filter(k -> k.startsWith(SLAVE_PREFIX)).collect(Collectors.toSet());
+        return getActiveNodeInfo().stream().filter(k -> k.startsWith(SLAVE_PREFIX)).collect(Collectors.toSet());
+    }
+
+    // 最近一次心跳早于此时间的节点视为宕机
+    private long heartDeadline() {
+        return context.timestamp() - context.expirationTime();
     }
 
     @Override
@@ -98,56 +150,129 @@ public class LeaderServiceImpl implements LeaderService {
         return redissonUtils.get(context.leaderName());
     }
 
+    //按score范围只读取心跳已过期的节点, leader每个周期的开销与宕机节点数成正比, 与集群规模无关
+    //先通过HEART_EXPIRE将节点移出心跳索引再执行宕机处理, 期间恢复心跳的节点不会被处理
     private void listener() {
-        Map<String, Long> heartMap = redissonUtils.hgetall(context.heartHash());
         long timestamp = context.timestamp();
-        log.info("listen heart, leader: {}, redisKey:{}, heartMap: {}, timestamp: {}", redissonUtils.get(context.leaderName()),
-                context.heartHash(), heartMap, timestamp);
-        heartMap.forEach((k, v) -> {
-            if (timestamp - v > context.expirationTime()) {
-                Optional<String> value = redissonUtils.hget(context.executeHash(), k);
-                log.warn("Node downtime processing start, k: {}, v: {}, timestamp: {}, executeHash: {}, executeValue: {}", k, v,
-                        timestamp, context.executeHash(), value);
-                if (k.startsWith(MASTER_PREFIX)) {
-                    value.ifPresent(this::acceptMaster);
-                } else if (k.startsWith(SLAVE_PREFIX)) {
-                    value.ifPresent(this::acceptSlave);
-                } else {
-                    throw new HashPrefixException(String.format("executeHash key prefix is not present, key: %s", k));
-                }
-                redissonUtils.hdel(context.executeHash(), k);
-                // 假设redis宕机后重启，这期间所有的executor的heart都过期了，leader的监听就会开始工作然后将heartHash删除
+        long deadline = heartDeadline();
+        Collection<RedissonUtils.ScoredEntryEx<String>> expired =
+                context.getRedissonUtils().zrangeByScore(context.heartIndex(), Double.NEGATIVE_INFINITY, deadline);
+        log.info("listen heart, leader: {}, heartIndex: {}, expired: {}, timestamp: {}", redissonUtils.get(context.leaderName()),
+                context.heartIndex(), expired.size(), timestamp);
+        expired.forEach(entry -> {
+            String k = entry.getValue();
+            long v = entry.getScore().longValue();
+            Optional<Long> removed = context.getRedissonUtils().eval(RScript.Mode.READ_WRITE, HEART_EXPIRE,
+                    Collections.singletonList(context.heartIndex()), k, deadline);
+            if (removed.orElse((long) ZERO) > ZERO) {
+                // 执行队列 -> 所属分片的就绪队列, STANDALONE布局下只有一个执行队列, 归属第一个分片
+                Map<String, String> executeSets = new LinkedHashMap<>();
+                context.getAllQueue().forEach(queue -> executeSets.putIfAbsent(context.executeSet(k, queue), queue));
+                executeSets.forEach((executeSet, queue) -> {
+                    Set<String> value = context.getRedissonUtils().smembers(executeSet);
+                    log.warn("Node downtime processing start, k: {}, v: {}, timestamp: {}, executeSet: {}, executeValue: {}", k, v,
+                            timestamp, executeSet, value);
+                    if (k.startsWith(MASTER_PREFIX)) {
+                        acceptMaster(value, context.resultQueue(queue));
+                    } else if (k.startsWith(SLAVE_PREFIX)) {
+                        acceptSlave(value, queue, isCluster());
+                    } else {
+                        throw new HashPrefixException(String.format("executeSet key prefix is not present, key: %s", k));
+                    }
+                    context.getRedissonUtils().del(executeSet);
+                });
+                // 假设redis宕机后重启，这期间所有的executor的heart都过期了，leader的监听就会开始工作然后将其移出心跳索引
                 // 不过没关系，executor还会间隔一段时间后重新注册
-                redissonUtils.hdel(context.heartHash(), k);
+                redissonUtils.hdel(context.throughputHash(), k);
                 rebalancer.handleNodeFailure(k,getActiveSlaveNode(),context.getQueueNums()); // 重新分配任务队列与工作节点的对应关系
-                log.warn("node downtime processing Successful, delete old executeHash: {}, delete old heartKey: {}, ", k, k);
+                log.warn("node downtime processing Successful, delete old executeSet: {}, remove from heartIndex: {}, ", executeSets.keySet(), k);
             }
         });
+        reap();
+        rebalancer.refresh(getActiveSlaveNode(), context.getQueueNums());
+    }
+
+    //延时任务的投放精度取决于timerInterval而不是心跳周期, 移入后发布唤醒消息, 阻塞消费的slave立即获取
+    private void promote() {
+        if (!leading) {
+            return;
+        }
+        try {
+            int promoted = taskService.promote(TIMER_PROMOTE_BATCH);
+            if (promoted > ZERO) {
+                context.getRedissonUtils().publish(context.readyTopic(), context.timerIndexes().toString());
+                log.info("timer promote finished, promoted: {}", promoted);
+            }
+        } catch (Exception e) {
+            log.error("Failed to promote timer tasks due to Redis exception: {}", e.getMessage(), e);
+        }
+    }
+
+    //启用租约时回收租约过期的任务, 节点存活但任务卡住时同样能放回就绪队列, 回收粒度为一个心跳周期
+    private void reap() {
+        if (context.leaseTimeout() <= ZERO) {
+            return;
+        }
+        int requeued = taskService.reap(LEASE_REAP_BATCH);
+        if (requeued > ZERO) {
+            log.warn("lease reap finished, requeued: {}", requeued);
+        }
     }
 
     /**
      * 若master节点宕机, 则将执行中数据存储至结果队列头部
      */
-    public void acceptMaster(String value) {
-        context.deleteSplit(value).forEach((v) -> redissonUtils.lpush(context.resultQueue(), v));
-        log.warn("master node downtime processing end, value: {}, to resultQueue: {}", value, context.resultQueue());
+    public void acceptMaster(Collection<String> value) {
+        acceptMaster(value, context.resultQueue());
     }
 
     /**
-     *  若slave节点宕机, 则将执行中数据存储至高优队列最高优先级
+     * 执行中数据存储至取出时所在的结果队列头部
      */
-    public void acceptSlave(String value) {
-        double zmax = redissonUtils.zmax(context.getQueue(QueueType.ONE));
-        context.deleteSplit(value)
-                .forEach((v) -> redissonUtils.zadd(context.getQueue(QueueType.ONE), zmax, v));
-        log.warn("slave node downtime processing end, value: {}, score: {} to hignQueue: {}", value, zmax, context.getQueue(QueueType.ONE));
+    public void acceptMaster(Collection<String> value, String resultQueue) {
+        value.forEach((v) -> context.getRedissonUtils().lpush(resultQueue, v));
+        log.warn("master node downtime processing end, value: {}, to resultQueue: {}", value, resultQueue);
+    }
+
+    /**
+     *  若slave节点宕机, 则将执行中数据存储至任务ID中记录的分片的最高优先级
+     */
+    public void acceptSlave(Collection<String> value) {
+        acceptSlave(value, context.getQueue(QueueType.ONE), false);
+    }
+
+    /**
+     * 执行中数据存储至就绪队列的最高优先级, 每次恢复都计入任务的失败次数, 达到maxAttempts的任务隔离至死信, 不再投放
+     *
+     * @param queue 执行队列所属的分片, cluster布局下即为任务原本所在的分片
+     * @param inPlace 为true时全部放回queue, 否则放回任务ID中记录的分片, 无法解析或超出分片数时放回queue
+     */
+    public void acceptSlave(Collection<String> value, String queue, boolean inPlace) {
+        Map<String, List<Object>> targets = new LinkedHashMap<>(); // 就绪队列 -> 任务ID
+        value.forEach(id -> targets.computeIfAbsent(inPlace ? queue : context.queueOf(id, queue), q -> new ArrayList<>()).add(id));
+        targets.forEach((target, ids) -> {
+            List<Object> args = new ArrayList<>(Arrays.asList(context.timestamp(), context.maxAttempts(), NODE_DOWN_CAUSE));
+            args.addAll(ids);
+            Optional<Long> quarantined = context.getRedissonUtils().eval(RScript.Mode.READ_WRITE, RECOVER,
+                    Arrays.asList(target, context.attemptsHash(target), context.deadIndex(target), context.deadHash(target)), args.toArray());
+            log.warn("slave node downtime processing end, value: {} to hignQueue: {}, quarantined: {}", ids, target,
+                    quarantined.orElse((long) ZERO));
+        });
+    }
+
+    private boolean isCluster() {
+        return context.keyLayout() == KeyLayout.CLUSTER;
     }
 
 
     public void process(ProcessLambda lambda) {
+        process(lambda, context.heartbeatInterval());
+    }
+
+    public void process(ProcessLambda lambda, long interval) {
         while (!stopper.get()) {
             lambda.process();
-            waiting(context.heartbeatInterval());
+            waiting(interval);
         }
     }
 
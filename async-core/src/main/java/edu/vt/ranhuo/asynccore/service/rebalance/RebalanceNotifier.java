@@ -0,0 +1,78 @@
+package edu.vt.ranhuo.asynccore.service.rebalance;
+
+import edu.vt.ranhuo.asynccore.utils.RedissonUtils;
+import lombok.extern.slf4j.Slf4j;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import org.redisson.api.RScript;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.Codec;
+import org.redisson.client.protocol.Encoder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.*;
+import static edu.vt.ranhuo.asynccore.enums.LuaScripts.REBALANCE_PUBLISH;
+
+/**
+ * 分配关系变更通知, 每次重新分配写完REBALANCE_MAP后版本号加一并发布
+ * slave缓存分配关系, 只在收到通知或版本号变化时才重新读取REBALANCE_MAP
+ */
+@Slf4j
+public final class RebalanceNotifier {
+
+    private RebalanceNotifier() {
+    }
+
+    /**
+     * 以generation为代数原子地替换全部分配关系并发布通知, slave不会读到只写了一半的分配关系
+     *
+     * @param generation 计算分配关系前读取的版本号
+     * @param assignment 节点 -> 队列编号
+     * @return 新的版本号, 期间已有其他节点完成重新分配时返回空Optional, 调用方应重新计算
+     */
+    public static Optional<Long> publish(RedissonUtils redissonUtils, long generation, Map<String, List<Integer>> assignment) {
+        // 版本号由lua按数字比较, 节点和队列需与RMap读取时的编解码一致, 因此参数统一编码为字节数组后传入
+        Codec codec = redissonUtils.getCodec();
+        List<Object> args = new ArrayList<>();
+        args.add(String.valueOf(generation).getBytes(StandardCharsets.US_ASCII));
+        assignment.forEach((node, queues) -> {
+            args.add(encode(codec.getMapKeyEncoder(), node));
+            args.add(encode(codec.getMapValueEncoder(), queues.toString()));
+        });
+        Optional<Long> version = redissonUtils.withCodec(ByteArrayCodec.INSTANCE).eval(RScript.Mode.READ_WRITE, REBALANCE_PUBLISH,
+                Arrays.asList(REBALANCE_MAP, REBALANCE_VERSION), args.toArray());
+        if (!version.isPresent() || version.get() == END_INDEX) {
+            log.warn("rebalance generation changed, generation: {}, assignment: {}", generation, assignment);
+            return Optional.empty();
+        }
+        redissonUtils.publish(REBALANCE_TOPIC, version.get());
+        log.info("rebalance finished, version: {}, assignment: {}", version.get(), assignment);
+        return version;
+    }
+
+    private static byte[] encode(Encoder encoder, Object value) {
+        try {
+            ByteBuf buf = encoder.encode(value);
+            try {
+                return ByteBufUtil.getBytes(buf);
+            } finally {
+                buf.release();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static long currentVersion(RedissonUtils redissonUtils) {
+        return redissonUtils.getLong(REBALANCE_VERSION);
+    }
+}
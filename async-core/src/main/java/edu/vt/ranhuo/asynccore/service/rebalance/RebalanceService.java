@@ -1,10 +1,29 @@
 package edu.vt.ranhuo.asynccore.service.rebalance;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 public interface RebalanceService {
     void startRebalance(Set<String> activeNodes, int queueNum);
     List<Integer> getQueuesForWorker(String workerName, Set<String> activeNodes, int queueNum);
     void handleNodeFailure(String failedNodeName, Set<String> activeNodes, int queueNum);
+
+    /**
+     * leader每个心跳周期调用一次, 需要根据运行时负载调整分配关系的策略在此重新评估, 默认不做处理
+     */
+    default void refresh(Set<String> activeNodes, int queueNum) {
+    }
+
+    /**
+     * 解析REBALANCE_MAP中保存的队列编号, 例如"[0, 1]", 空列表"[]"解析为空集合
+     */
+    static List<Integer> parseQueues(String queues) {
+        return Arrays.stream(queues.substring(1, queues.length() - 1).split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty()) // 过滤掉空字符串
+                .map(Integer::parseInt)
+                .collect(Collectors.toList());
+    }
 }
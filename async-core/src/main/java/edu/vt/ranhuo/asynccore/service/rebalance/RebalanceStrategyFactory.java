@@ -1,6 +1,8 @@
 package edu.vt.ranhuo.asynccore.service.rebalance;
 
+import edu.vt.ranhuo.asynccore.config.TaskContext;
 import edu.vt.ranhuo.asynccore.service.rebalance.impl.ConstantHashRebalanceServiceImpl;
+import edu.vt.ranhuo.asynccore.service.rebalance.impl.LoadAwareRebalanceServiceImpl;
 import edu.vt.ranhuo.asynccore.service.rebalance.impl.RoundRebalanceServiceImpl;
 import edu.vt.ranhuo.asynccore.utils.RedissonUtils;
 import org.redisson.Redisson;
@@ -10,27 +12,49 @@ import java.util.HashMap;
 import java.util.Map;
 
 import static edu.vt.ranhuo.asynccore.enums.CommonConstants.CONSISTENT_HASH;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.LOAD_AWARE;
 import static edu.vt.ranhuo.asynccore.enums.CommonConstants.ROUND_ROBIN;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.VIRTUAL_NODES;
 
 public class RebalanceStrategyFactory {
     private static final Map<String,RebalanceService> strategyMap = new HashMap<>();
 
+    /**
+     * 按配置创建均衡策略, load-aware策略需要读取队列长度和完成速率, 只能通过此方法创建
+     * load-aware策略读取的是context所属topic的队列, 不同prefix的leader不能共用, 因此每次调用都新建, 不放入缓存
+     */
+    public static RebalanceService getRebalanceStrategy(TaskContext context){
+        String strategy = context.getConfig().getRebalanceStrategy();
+        if (LOAD_AWARE.equals(strategy)) {
+            return new LoadAwareRebalanceServiceImpl(context);
+        }
+        return getRebalanceStrategy(strategy, context.getConfig().getVirtualNodes(), context.getConfig().getRedissonClient());
+    }
+
     public static RebalanceService getRebalanceStrategy(String strategy, RedissonClient redissonClient){
-        if(strategyMap.containsKey(strategy)){
-            return strategyMap.get(strategy);
+        return getRebalanceStrategy(strategy, VIRTUAL_NODES, redissonClient);
+    }
+
+    public static RebalanceService getRebalanceStrategy(String strategy, int virtualNodes, RedissonClient redissonClient){
+        // 一致性hash的哈希环由虚拟节点数决定, 虚拟节点数不同的配置不能共用同一个实例
+        String key = CONSISTENT_HASH.equals(strategy) ? strategy + virtualNodes : strategy;
+        if(strategyMap.containsKey(key)){
+            return strategyMap.get(key);
         }
         RebalanceService rebalanceService = null;
         switch (strategy){
             case CONSISTENT_HASH:
-                rebalanceService = new ConstantHashRebalanceServiceImpl(redissonClient);
+                rebalanceService = new ConstantHashRebalanceServiceImpl(redissonClient, virtualNodes);
                 break;
             case ROUND_ROBIN:
                 rebalanceService = new RoundRebalanceServiceImpl(redissonClient);
                 break;
+            case LOAD_AWARE:
+                throw new IllegalArgumentException("Strategy requires TaskContext: " + strategy);
             default:
                 throw new IllegalArgumentException("Unknown strategy: " + strategy);
         }
-        strategyMap.put(strategy,rebalanceService);
+        strategyMap.put(key,rebalanceService);
         return rebalanceService;
     }
 
@@ -0,0 +1,207 @@
+package edu.vt.ranhuo.asynccore.service.rebalance.impl;
+
+import edu.vt.ranhuo.asynccore.config.TaskContext;
+import edu.vt.ranhuo.asynccore.service.rebalance.RebalanceNotifier;
+import edu.vt.ranhuo.asynccore.service.rebalance.RebalanceService;
+import edu.vt.ranhuo.asynccore.utils.RedissonUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.*;
+
+/**
+ * 按队列积压和slave完成速率分配队列, 使每个slave预计清空所负责队列的时间尽量接近
+ * 队列积压取ZCARD, 完成速率取slave随心跳上报的值, 尚未上报的slave按已上报slave的平均速率估计
+ * leader每个心跳周期重新评估一次, 预计清空时间的改善超过LOAD_IMBALANCE_THRESHOLD时才重新分配
+ */
+@Slf4j
+public class LoadAwareRebalanceServiceImpl implements RebalanceService {
+
+    private final TaskContext context;
+    private final RedissonUtils redissonUtils;
+
+    public LoadAwareRebalanceServiceImpl(TaskContext context) {
+        this.context = context;
+        this.redissonUtils = RedissonUtils.getInstance(Optional.of(context.getConfig().getRedissonClient()));
+    }
+
+    @Override
+    public void startRebalance(Set<String> activeNodes, int queueNum) {
+        publish(activeNodes, queueNum, false);
+    }
+
+    @Override
+    public List<Integer> getQueuesForWorker(String workerName, Set<String> activeNodes, int queueNum) {
+        Optional<String> queuesString = redissonUtils.hget(REBALANCE_MAP, workerName);
+
+        if (!queuesString.isPresent()) {
+            // 没有找到对应的分配关系，需要重新初始化
+            startRebalance(activeNodes, queueNum);
+            queuesString = redissonUtils.hget(REBALANCE_MAP, workerName);
+        }
+        return RebalanceService.parseQueues(queuesString.orElse("[]"));
+    }
+
+    @Override
+    public void handleNodeFailure(String failedNodeName, Set<String> activeNodes, int queueNum) {
+        Set<String> nodes = new HashSet<>(activeNodes);
+        nodes.remove(failedNodeName);
+        startRebalance(nodes, queueNum);
+    }
+
+    @Override
+    public void refresh(Set<String> activeNodes, int queueNum) {
+        publish(activeNodes, queueNum, true);
+    }
+
+    /**
+     * @param onlyIfBetter 为true时只有节点集合发生变化或预计清空时间改善足够多才写入新的分配关系
+     */
+    private void publish(Set<String> activeNodes, int queueNum, boolean onlyIfBetter) {
+        for (int i = 0; i < REBALANCE_RETRY; i++) {
+            long generation = RebalanceNotifier.currentVersion(redissonUtils);
+            Map<String, String> existing = redissonUtils.hgetall(REBALANCE_MAP);
+            Map<String, List<Integer>> previous = new HashMap<>();
+            existing.forEach((node, queues) -> previous.put(node, RebalanceService.parseQueues(queues)));
+
+            long[] depths = queueDepths(queueNum);
+            Map<String, Double> rates = throughputs(activeNodes);
+            Map<String, List<Integer>> assignment = computeAssignment(depths, rates);
+            if (onlyIfBetter && previous.keySet().equals(activeNodes)) {
+                double current = drainTime(previous, depths, rates);
+                double proposed = drainTime(assignment, depths, rates);
+                if (proposed >= current * (1 - LOAD_IMBALANCE_THRESHOLD)) {
+                    return;
+                }
+                log.info("load-aware rebalance, drain time: {}s -> {}s, depths: {}, rates: {}", current, proposed,
+                        Arrays.toString(depths), rates);
+            }
+            if (RebalanceNotifier.publish(redissonUtils, generation, assignment).isPresent()) {
+                return;
+            }
+        }
+        log.error("rebalance failed after {} retries, activeNodes: {}", REBALANCE_RETRY, activeNodes);
+    }
+
+    private long[] queueDepths(int queueNum) {
+        List<String> queues = context.getAllQueue().subList(0, Math.min(queueNum, context.getQueueNums()));
+        Map<String, Integer> sizes = context.getRedissonUtils().zcardBatch(queues);
+        long[] depths = new long[queueNum];
+        for (int i = 0; i < queues.size(); i++) {
+            depths[i] = sizes.getOrDefault(queues.get(i), ZERO);
+        }
+        return depths;
+    }
+
+    private Map<String, Double> throughputs(Set<String> activeNodes) {
+        Map<String, Object> reported = redissonUtils.hgetall(context.throughputHash());
+        Map<String, Double> rates = new TreeMap<>();
+        activeNodes.forEach(node -> {
+            Object rate = reported.get(node);
+            if (rate instanceof Number && ((Number) rate).doubleValue() > 0) {
+                rates.put(node, ((Number) rate).doubleValue());
+            }
+        });
+        double average = rates.values().stream().mapToDouble(Double::doubleValue).average().orElse(FIRST);
+        activeNodes.forEach(node -> rates.putIfAbsent(node, average));
+        return rates;
+    }
+
+    /**
+     * 1. 节点数不多于队列数时, 每个队列只属于一个节点: 按积压从大到小, 依次分配给加入该队列后预计清空时间最短的节点,
+     *    每个节点先保证至少一个队列
+     * 2. 节点数多于队列数时, 每个节点只负责一个队列: 先按速率从大到小为每个队列分配一个节点,
+     *    剩余节点依次加入当前预计清空时间最长的队列
+     * 积压按ZCARD + 1计算, 空队列也会按速率分摊
+     */
+    public Map<String, List<Integer>> computeAssignment(long[] depths, Map<String, Double> rates) {
+        Map<String, List<Integer>> assignment = new TreeMap<>();
+        int queueNum = depths.length;
+        if (rates.isEmpty() || queueNum == 0) {
+            return assignment;
+        }
+        List<String> nodes = new ArrayList<>(rates.keySet());
+        nodes.sort(Comparator.comparingDouble((String node) -> rates.get(node)).reversed().thenComparing(Comparator.naturalOrder()));
+        List<Integer> queues = new ArrayList<>();
+        for (int queue = 0; queue < queueNum; queue++) {
+            queues.add(queue);
+        }
+        queues.sort(Comparator.comparingLong((Integer queue) -> depths[queue]).reversed().thenComparing(Comparator.naturalOrder()));
+        nodes.forEach(node -> assignment.put(node, new ArrayList<>()));
+
+        if (nodes.size() <= queueNum) {
+            Map<String, Double> load = new HashMap<>();
+            nodes.forEach(node -> load.put(node, 0d));
+            for (int i = 0; i < queueNum; i++) {
+                int queue = queues.get(i);
+                double work = depths[queue] + 1;
+                // 前nodes.size()个队列只在还没有队列的节点中选择
+                int remaining = i;
+                String target = nodes.stream()
+                        .filter(node -> remaining >= nodes.size() || assignment.get(node).isEmpty())
+                        .min(Comparator.comparingDouble((String node) -> (load.get(node) + work) / rates.get(node)))
+                        .get();
+                load.put(target, load.get(target) + work);
+                assignment.get(target).add(queue);
+            }
+        } else {
+            double[] capacity = new double[queueNum];
+            for (int i = 0; i < nodes.size(); i++) {
+                String node = nodes.get(i);
+                int target = i < queueNum ? queues.get(i) : longestDrain(depths, capacity);
+                capacity[target] += rates.get(node);
+                assignment.get(node).add(target);
+            }
+        }
+        assignment.values().forEach(Collections::sort);
+        return assignment;
+    }
+
+    private static int longestDrain(long[] depths, double[] capacity) {
+        int target = 0;
+        for (int queue = 1; queue < depths.length; queue++) {
+            if ((depths[queue] + 1) / capacity[queue] > (depths[target] + 1) / capacity[target]) {
+                target = queue;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * 分配关系下全部队列预计清空所需的时间, 即各节点中最长的清空时间, 多个节点共享的队列按速率之和计算
+     */
+    public double drainTime(Map<String, List<Integer>> assignment, long[] depths, Map<String, Double> rates) {
+        double[] capacity = new double[depths.length];
+        Map<Integer, Integer> sharing = new HashMap<>();
+        assignment.forEach((node, queues) -> queues.stream().filter(queue -> queue < depths.length).forEach(queue -> {
+            capacity[queue] += rates.getOrDefault(node, 0d);
+            sharing.merge(queue, 1, Integer::sum);
+        }));
+        double slowest = 0;
+        for (Map.Entry<String, List<Integer>> entry : assignment.entrySet()) {
+            double rate = rates.getOrDefault(entry.getKey(), 0d);
+            double work = 0;
+            double time = 0;
+            for (Integer queue : entry.getValue()) {
+                if (queue >= depths.length) {
+                    continue;
+                }
+                if (sharing.get(queue) > 1) {
+                    time = Math.max(time, (depths[queue] + 1) / capacity[queue]);
+                } else {
+                    work += depths[queue] + 1;
+                }
+            }
+            time = Math.max(time, rate > 0 ? work / rate : work > 0 ? Double.MAX_VALUE : 0);
+            slowest = Math.max(slowest, time);
+        }
+        // 没有被任何节点负责的队列视为无法清空
+        for (int queue = 0; queue < depths.length; queue++) {
+            if (capacity[queue] == 0 && !sharing.containsKey(queue)) {
+                return Double.MAX_VALUE;
+            }
+        }
+        return slowest;
+    }
+}
@@ -1,12 +1,20 @@
 package edu.vt.ranhuo.asynccore.service.rebalance.impl;
+import edu.vt.ranhuo.asynccore.service.rebalance.RebalanceNotifier;
 import edu.vt.ranhuo.asynccore.service.rebalance.RebalanceService;
 import edu.vt.ranhuo.asynccore.utils.RedissonUtils;
+import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RedissonClient;
 import java.util.*;
 import java.util.stream.Collectors;
 
 import static edu.vt.ranhuo.asynccore.enums.CommonConstants.REBALANCE_MAP;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.REBALANCE_RETRY;
 
+/**
+ * 轮询均分队列, 重新分配时以上一次的分配关系为基础增量调整, 只移动达到均分所必须移动的队列
+ * 新的分配关系以版本号为代数原子地整体替换, 未受影响的slave在重新分配期间可以继续消费原有队列
+ */
+@Slf4j
 public class RoundRebalanceServiceImpl implements RebalanceService {
 
     private final RedissonUtils redissonUtils;
@@ -15,57 +23,125 @@ public class RoundRebalanceServiceImpl implements RebalanceService {
         redissonUtils = RedissonUtils.getInstance(Optional.of(redissonClient));
     }
 
+    // 先读取版本号再读取分配关系, 若写入时版本号已变化说明期间有其他节点完成了重新分配, 基于最新的分配关系重新计算
     public void startRebalance(Set<String> activeNodes,int queueNum) {
-        // 获取现有的key并清空对应的值, 避免触发多次缓存重建
-        Map<String, String> existingKeys = redissonUtils.hgetall(REBALANCE_MAP);
-        for (String key : existingKeys.keySet()) {
-            redissonUtils.hset(REBALANCE_MAP, key, "[]");
+        for (int i = 0; i < REBALANCE_RETRY; i++) {
+            long generation = RebalanceNotifier.currentVersion(redissonUtils);
+            Map<String, String> existing = redissonUtils.hgetall(REBALANCE_MAP);
+            Map<String, List<Integer>> previous = new HashMap<>();
+            existing.forEach((node, queues) -> previous.put(node, RebalanceService.parseQueues(queues)));
+            Map<String, List<Integer>> assignment = computeAssignment(previous, activeNodes, queueNum);
+            if (RebalanceNotifier.publish(redissonUtils, generation, assignment).isPresent()) {
+                return;
+            }
         }
+        log.error("rebalance failed after {} retries, activeNodes: {}", REBALANCE_RETRY, activeNodes);
+    }
 
+    /**
+     * 基于上一次的分配关系计算新的分配关系
+     * 1. 节点数不多于队列数时, 每个队列只属于一个节点, 每个节点负责的队列数相差不超过1
+     * 2. 节点数多于队列数时, 每个节点只负责一个队列, 每个队列的节点数相差不超过1
+     * 节点优先保留原有的队列, 只有超出配额的队列和宕机节点的队列会被重新分配
+     */
+    public Map<String, List<Integer>> computeAssignment(Map<String, List<Integer>> previous, Set<String> activeNodes, int queueNum) {
+        Map<String, List<Integer>> assignment = new TreeMap<>();
+        if (activeNodes.isEmpty() || queueNum <= 0) {
+            return assignment;
+        }
+        // 原本负责队列越多的节点越优先获得较大的配额, 减少需要移动的队列
         List<String> nodes = new ArrayList<>(activeNodes);
-        int nodeNum = nodes.size();
-        int minQueuesPerNode = queueNum / nodeNum;
-        int extraQueues = queueNum % nodeNum;
-        Map<String, List<Integer>> nodeQueueMap = new HashMap<>();
-
+        nodes.sort(Comparator.comparingInt((String node) -> validQueues(previous.get(node), queueNum).size()).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+        if (nodes.size() <= queueNum) {
+            assignQueuesToNodes(previous, nodes, queueNum, assignment);
+        } else {
+            assignNodesToQueues(previous, nodes, queueNum, assignment);
+        }
+        assignment.values().forEach(Collections::sort);
+        return assignment;
+    }
 
-        if(nodeNum>queueNum){
-            for (int i = 0; i < nodeNum; i++) {
-                List<Integer> queuesForNode = new ArrayList<>();
-                queuesForNode.add(i % queueNum);
-                nodeQueueMap.put(nodes.get(i), queuesForNode);
+    private void assignQueuesToNodes(Map<String, List<Integer>> previous, List<String> nodes, int queueNum,
+                                     Map<String, List<Integer>> assignment) {
+        int minQueuesPerNode = queueNum / nodes.size();
+        int extraQueues = queueNum % nodes.size();
+        Set<Integer> owned = new HashSet<>();
+        Map<String, Integer> quota = new HashMap<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            String node = nodes.get(i);
+            quota.put(node, minQueuesPerNode + (i < extraQueues ? 1 : 0));
+            List<Integer> kept = new ArrayList<>();
+            for (Integer queue : validQueues(previous.get(node), queueNum)) {
+                if (kept.size() < quota.get(node) && owned.add(queue)) {
+                    kept.add(queue);
+                }
             }
-            for (Map.Entry<String, List<Integer>> entry : nodeQueueMap.entrySet()) {
-                // 保存节点与队列的映射关系到Redis
-                redissonUtils.hset(REBALANCE_MAP, entry.getKey(), entry.getValue().toString());
+            assignment.put(node, kept);
+        }
+        Deque<Integer> pool = new ArrayDeque<>();
+        for (int queue = 0; queue < queueNum; queue++) {
+            if (!owned.contains(queue)) {
+                pool.add(queue);
             }
-            return;
         }
+        for (String node : nodes) {
+            List<Integer> queues = assignment.get(node);
+            while (queues.size() < quota.get(node)) {
+                queues.add(pool.poll());
+            }
+        }
+    }
 
-        int queueIndex = 0;
+    private void assignNodesToQueues(Map<String, List<Integer>> previous, List<String> nodes, int queueNum,
+                                     Map<String, List<Integer>> assignment) {
+        // 原本节点越多的队列越优先获得较大的容量
+        int[] holders = new int[queueNum];
+        nodes.forEach(node -> validQueues(previous.get(node), queueNum).stream().findFirst().ifPresent(queue -> holders[queue]++));
+        List<Integer> queues = new ArrayList<>();
+        for (int queue = 0; queue < queueNum; queue++) {
+            queues.add(queue);
+        }
+        queues.sort(Comparator.comparingInt((Integer queue) -> holders[queue]).reversed().thenComparing(Comparator.naturalOrder()));
+        int[] capacity = new int[queueNum];
+        for (int i = 0; i < queueNum; i++) {
+            capacity[queues.get(i)] = nodes.size() / queueNum + (i < nodes.size() % queueNum ? 1 : 0);
+        }
+        List<String> unassigned = new ArrayList<>();
         for (String node : nodes) {
-            List<Integer> queuesForNode = new ArrayList<>();
-            for (int i = 0; i < minQueuesPerNode; i++) {
-                queuesForNode.add(queueIndex % queueNum);
-                queueIndex++;
+            Optional<Integer> current = validQueues(previous.get(node), queueNum).stream().findFirst();
+            if (current.isPresent() && capacity[current.get()] > 0) {
+                capacity[current.get()]--;
+                assignment.put(node, new ArrayList<>(Collections.singletonList(current.get())));
+            } else {
+                unassigned.add(node);
             }
-            if (extraQueues > 0) {
-                queuesForNode.add(queueIndex % queueNum);
-                queueIndex++;
-                extraQueues--;
+        }
+        for (String node : unassigned) {
+            int target = 0;
+            for (int queue = 1; queue < queueNum; queue++) {
+                if (capacity[queue] > capacity[target]) {
+                    target = queue;
+                }
             }
-            nodeQueueMap.put(node, queuesForNode);
+            capacity[target]--;
+            assignment.put(node, new ArrayList<>(Collections.singletonList(target)));
         }
+    }
 
-        for (Map.Entry<String, List<Integer>> entry : nodeQueueMap.entrySet()) {
-            redissonUtils.hset(REBALANCE_MAP, entry.getKey(), entry.getValue().toString());
+    private static List<Integer> validQueues(List<Integer> queues, int queueNum) {
+        if (queues == null) {
+            return Collections.emptyList();
         }
+        return queues.stream().filter(queue -> queue >= 0 && queue < queueNum).distinct().collect(Collectors.toList());
     }
 
+    // 宕机节点不在activeNodes中, 增量分配后的新分配关系不再包含该节点, 其队列分配给其他节点
     @Override
     public void handleNodeFailure(String failedNodeName, Set<String> activeNodes, int queueNum) {
-        startRebalance(activeNodes,queueNum);
-        redissonUtils.hdel(REBALANCE_MAP,failedNodeName);
+        Set<String> nodes = new HashSet<>(activeNodes);
+        nodes.remove(failedNodeName);
+        startRebalance(nodes, queueNum);
     }
 
     public List<Integer> getQueuesForWorker(String workerName,Set<String> activeNodes,int queueNum) {
@@ -77,13 +153,6 @@ public class RoundRebalanceServiceImpl implements RebalanceService {
             queuesString = redissonUtils.hget(REBALANCE_MAP, workerName);
         }
         // 解析队列编号并返回
-        String queues = queuesString.orElse("[]");
-
-        return Arrays.stream(queues.substring(1, queues.length() - 1).split(","))
-                .map(String::trim)
-                .filter(s -> !s.isEmpty()) // 过滤掉空字符串
-                .map(Integer::parseInt)
-                .collect(Collectors.toList());
+        return RebalanceService.parseQueues(queuesString.orElse("[]"));
     }
 }
-
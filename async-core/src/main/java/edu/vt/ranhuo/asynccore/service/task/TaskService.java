@@ -1,21 +1,198 @@
 package edu.vt.ranhuo.asynccore.service.task;
 
+import edu.vt.ranhuo.asynccore.enums.Status;
+import edu.vt.ranhuo.asynccore.model.DeadLetter;
+import edu.vt.ranhuo.asynccore.model.Task;
+import edu.vt.ranhuo.asynccore.utils.RedissonUtils;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 就绪队列、执行队列和结果队列中只保存任务ID, 任务数据和任务结果分别保存在payload hash和result hash中
+ */
 public interface TaskService<K,V> {
     /**
-     * 将数据存储放至执行队列
+     * 将任务ID写入就绪队列, 任务数据写入payload hash, 由一次lua脚本调用原子完成
+     *
+     * @param queue 就绪队列
+     * @param tasks 任务 -> score
+     * @return 新增的任务数
+     */
+    int send(String queue, Map<Task<V>, Double> tasks);
+
+    /**
+     * send的异步版本
+     */
+    CompletableFuture<Integer> sendAsync(String queue, Map<Task<V>, Double> tasks);
+
+    /**
+     * 将延时任务写入定时索引, 到达deliverAt后由leader移入就绪队列, 由一次lua脚本调用原子完成
+     *
+     * @param queue 到期后进入的就绪队列
+     * @param tasks 任务 -> 进入就绪队列后的score
+     * @param deliverAt 投放时间, 毫秒时间戳
+     * @return 新增的任务数
+     */
+    int schedule(String queue, Map<Task<V>, Double> tasks, long deliverAt);
+
+    /**
+     * schedule的异步版本
+     */
+    CompletableFuture<Integer> scheduleAsync(String queue, Map<Task<V>, Double> tasks, long deliverAt);
+
+    /**
+     * 将全部定时索引中已到期的延时任务移入所属就绪队列, 由leader定期调用
+     *
+     * @param batchSize 每次lua脚本调用处理的最大任务数
+     * @return 移入就绪队列的任务数
+     */
+    int promote(int batchSize);
+
+    /**
+     * 从就绪队列中删除任务及其任务数据, O(log n), 不在就绪队列中时再尝试删除尚未到期的延时任务
+     *
+     * @param queue 就绪队列
+     * @param id 任务ID
+     * @return 任务是否在就绪队列或定时索引中
+     */
+    boolean delete(String queue, String id);
+
+    /**
+     * 获取就绪队列中的全部任务
+     */
+    Collection<RedissonUtils.ScoredEntryEx<Task<V>>> getQueue(String queue);
+
+    /**
+     * 原子地从就绪队列中取出最高优先级的任务并存放至执行队列, 无需分布式锁
      *
+     * @param queue 就绪队列
      * @param hashKey 执行中的hashKey
-     * @param t 任务
+     * @return 任务, 若队列无数据则返回空Optional
      */
-    void sendExecuteQueue(K hashKey, V t);
+    Optional<Task<V>> claim(String queue, K hashKey);
 
     /**
-     * 删除执行队列中的任务
+     * 原子地从多个就绪队列中按优先级从高到低取出至多maxTasks个任务, 并一次性存放至执行队列
      *
+     * @param queues 就绪队列
      * @param hashKey 执行中的hashKey
-     * @param t 任务
+     * @param maxTasks 最大任务数
+     * @return 任务列表, 按优先级从高到低排列, 若队列无数据则返回空列表
      */
-    void commitExecuteTask(K hashKey, V t);
+    List<Task<V>> claim(List<String> queues, K hashKey, int maxTasks);
+
+    /**
+     * 原子地从结果队列头部按先进先出顺序取出至多maxTasks个结果, 并一次性存放至执行队列, 无需分布式锁
+     *
+     * @param queue 结果队列
+     * @param hashKey 执行中的hashKey
+     * @param maxTasks 最大结果数
+     * @return 结果列表, payload为任务结果, 若队列无数据则返回空列表
+     */
+    List<Task<V>> drain(String queue, K hashKey, int maxTasks);
+
+    /**
+     * 依次从多个结果队列中取出结果, 共计至多maxTasks个, 每个结果队列一次lua脚本调用
+     *
+     * @param queues 结果队列
+     * @param hashKey 执行中的hashKey
+     * @param maxTasks 最大结果数
+     * @return 结果列表, 若队列无数据则返回空列表
+     */
+    List<Task<V>> drain(List<String> queues, K hashKey, int maxTasks);
+
+    /**
+     * 将任务ID存放至执行队列
+     *
+     * @param hashKey 执行中的hashKey
+     * @param id 任务ID
+     */
+    void sendExecuteQueue(K hashKey, String id);
+
+    /**
+     * 批量提交任务, 将任务ID存放至结果队列、任务结果写入result hash, 并删除执行队列中的任务ID和任务数据, 由一次lua脚本调用原子完成
+     *
+     * @param hashKey 执行中的hashKey
+     * @param values 任务ID -> 任务结果
+     */
+    void commitAll(K hashKey, Map<String, V> values);
+
+    /**
+     * 删除执行队列中的任务ID及其任务结果, master处理完结果后调用
+     *
+     * @param hashKey 执行中的hashKey
+     * @param id 任务ID
+     */
+    void commitExecuteTask(K hashKey, String id);
+
+    /**
+     * 任务执行失败, 从执行队列中移除, 未达到maxAttempts时按指数退避写入定时索引, 到期后由leader放回就绪队列最高优先级,
+     * 否则进入死信, 由一次lua脚本调用原子完成
+     *
+     * @param hashKey 执行中的hashKey
+     * @param id 任务ID
+     * @param cause 失败原因
+     * @return RETRY: 等待重试, DEAD: 进入死信, NON_EXISTENT: 任务不在执行队列中(已提交或租约过期被回收)
+     */
+    Status fail(K hashKey, String id, String cause);
+
+    /**
+     * 按进入死信的时间从早到晚获取至多maxSize个死信任务
+     */
+    List<DeadLetter<V>> getDeadLetters(int maxSize);
+
+    /**
+     * 获取死信任务数
+     */
+    int getDeadLetterSum();
+
+    /**
+     * 将死信任务重新投放至就绪队列最高优先级, 并清空失败次数
+     *
+     * @param queue 任务所属的就绪队列
+     * @param id 任务ID
+     * @return 任务是否在死信中
+     */
+    boolean redrive(String queue, String id);
+
+    /**
+     * 删除死信任务及其任务数据
+     *
+     * @param queue 任务所属的就绪队列
+     * @param id 任务ID
+     * @return 任务是否在死信中
+     */
+    boolean deleteDeadLetter(String queue, String id);
+
+    /**
+     * 延长执行中任务的租约, 到期时间为当前时间加上leaseTimeout, 未启用租约时直接返回true
+     *
+     * @param hashKey 执行中的hashKey
+     * @param id 任务ID
+     * @return 租约是否仍然有效, false代表任务已提交或租约已过期被放回就绪队列, 此时不应再提交结果
+     */
+    boolean renew(K hashKey, String id);
+
+    /**
+     * 将租约过期的任务从所属节点的执行队列中移除并放回就绪队列最高优先级, 由leader定期调用
+     *
+     * @param batchSize 每次lua脚本调用处理的最大任务数
+     * @return 放回就绪队列的任务数
+     */
+    int reap(int batchSize);
+
+    /**
+     * 获取执行队列中的任务ID
+     *
+     * @param hashKey 执行中的hashKey
+     * @return 正在执行的任务ID
+     */
+    Set<String> getExecuteQueue(K hashKey);
 
     /**
      * 获取正在执行的队列任务数
@@ -24,4 +201,41 @@ public interface TaskService<K,V> {
      * @return  正在执行的任务数
      */
     int getExecuteQueueSum(K hashKey);
+
+    /**
+     * claim的异步版本
+     */
+    CompletableFuture<Optional<Task<V>>> claimAsync(String queue, K hashKey);
+
+    /**
+     * 批量claim的异步版本
+     */
+    CompletableFuture<List<Task<V>>> claimAsync(List<String> queues, K hashKey, int maxTasks);
+
+    /**
+     * drain的异步版本
+     */
+    CompletableFuture<List<Task<V>>> drainAsync(String queue, K hashKey, int maxTasks);
+
+    /**
+     * 多个结果队列drain的异步版本
+     */
+    CompletableFuture<List<Task<V>>> drainAsync(List<String> queues, K hashKey, int maxTasks);
+
+    /**
+     * commitAll的异步版本
+     */
+    CompletableFuture<Void> commitAllAsync(K hashKey, Map<String, V> values);
+
+    /**
+     * commitExecuteTask的异步版本
+     *
+     * @return 任务是否存在于执行队列中
+     */
+    CompletableFuture<Boolean> commitExecuteTaskAsync(K hashKey, String id);
+
+    /**
+     * getExecuteQueueSum的异步版本
+     */
+    CompletableFuture<Integer> getExecuteQueueSumAsync(K hashKey);
 }
@@ -1,55 +1,618 @@
 package edu.vt.ranhuo.asynccore.service.task.impl;
 
 import edu.vt.ranhuo.asynccore.config.ITaskContext;
+import edu.vt.ranhuo.asynccore.enums.KeyLayout;
+import edu.vt.ranhuo.asynccore.enums.Status;
+import edu.vt.ranhuo.asynccore.model.DeadLetter;
+import edu.vt.ranhuo.asynccore.model.Task;
 import edu.vt.ranhuo.asynccore.service.task.TaskService;
+import edu.vt.ranhuo.asynccore.utils.RedissonUtils;
 import lombok.extern.slf4j.Slf4j;
-import lombok.val;
+import org.redisson.api.RScript;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.EMPTY_STRING;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.END_INDEX;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.FIRST;
 import static edu.vt.ranhuo.asynccore.enums.CommonConstants.HASH_VALUE_SPLIT;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.HASH_VALUE_SPLIT_ESCAPE;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.LEASE_EXPIRED_CAUSE;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.RETRY_JITTER;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.SECOND;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.THIRD;
 import static edu.vt.ranhuo.asynccore.enums.CommonConstants.ZERO;
+import static edu.vt.ranhuo.asynccore.enums.LuaScripts.*;
 
+/**
+ * KeyLayout.CLUSTER布局下每个脚本只涉及一个分片的key: 执行队列、结果队列和payload/result hash按分片拆分,
+ * 跨分片的批量操作拆为逐个分片的脚本调用, 任务所在分片记录在本地, 提交时只访问所属分片
+ */
 @Slf4j
 public class TaskServiceImpl implements TaskService<String, String> {
 
     private final ITaskContext context;
+    // cluster布局下执行中的任务ID -> 取出该任务的分片key, 提交后删除
+    private final Map<String, String> shardOf = new ConcurrentHashMap<>();
 
     public TaskServiceImpl(ITaskContext context) {
         this.context = context;
     }
 
     @Override
-    public void sendExecuteQueue(String hashKey, String value) {
-        Optional<String> oldHashValue = context.getRedissonUtils().hget(context.executeHash(), hashKey);
-        String hashValue = context.addSplit(oldHashValue, value);
-        context.getRedissonUtils().hset(context.executeHash(), hashKey, hashValue);
-        log.debug("TaskService:sendExecuteQueue, executeHash: {}, hashKey: {}, value: {}, oldHashValue: {}, newHashValue: {}",
-                context.executeHash(), hashKey, value, oldHashValue, hashValue);
+    public int send(String queue, Map<Task<String>, Double> tasks) {
+        if (tasks.isEmpty()) {
+            return ZERO;
+        }
+        Optional<Long> added = context.getRedissonUtils().eval(RScript.Mode.READ_WRITE, SEND,
+                Arrays.asList(queue, context.payloadHash(queue)), sendArgs(tasks));
+        log.debug("TaskService:send, queue: {}, size: {}, added: {}", queue, tasks.size(), added);
+        return added.orElse((long) ZERO).intValue();
     }
 
     @Override
-    public void commitExecuteTask(String hashKey, String value) {
-        Optional<String> oldHashValue = context.getRedissonUtils().hget(context.executeHash(), hashKey);
-        oldHashValue.ifPresent((v) -> {
-            List<String> collect = context.deleteSplit(v).stream().filter((s) -> !s.equals(value)).collect(Collectors.toList());
-            String hashValue = null;
-            if (collect.isEmpty()) {
-                context.getRedissonUtils().hdel(context.executeHash(), hashKey);
-            } else {
-                hashValue = String.join(HASH_VALUE_SPLIT, collect);
-                context.getRedissonUtils().hset(context.executeHash(), hashKey, hashValue);
+    public CompletableFuture<Integer> sendAsync(String queue, Map<Task<String>, Double> tasks) {
+        if (tasks.isEmpty()) {
+            return CompletableFuture.completedFuture(ZERO);
+        }
+        CompletableFuture<Optional<Long>> added = context.getRedissonUtils().evalAsync(RScript.Mode.READ_WRITE, SEND,
+                Arrays.asList(queue, context.payloadHash(queue)), sendArgs(tasks));
+        return added.thenApply(v -> v.orElse((long) ZERO).intValue());
+    }
+
+    @Override
+    public int schedule(String queue, Map<Task<String>, Double> tasks, long deliverAt) {
+        if (tasks.isEmpty()) {
+            return ZERO;
+        }
+        Optional<Long> added = context.getRedissonUtils().eval(RScript.Mode.READ_WRITE, SCHEDULE,
+                scheduleKeys(queue), scheduleArgs(tasks, deliverAt));
+        log.debug("TaskService:schedule, queue: {}, size: {}, deliverAt: {}, added: {}", queue, tasks.size(), deliverAt, added);
+        return added.orElse((long) ZERO).intValue();
+    }
+
+    @Override
+    public CompletableFuture<Integer> scheduleAsync(String queue, Map<Task<String>, Double> tasks, long deliverAt) {
+        if (tasks.isEmpty()) {
+            return CompletableFuture.completedFuture(ZERO);
+        }
+        CompletableFuture<Optional<Long>> added = context.getRedissonUtils().evalAsync(RScript.Mode.READ_WRITE, SCHEDULE,
+                scheduleKeys(queue), scheduleArgs(tasks, deliverAt));
+        return added.thenApply(v -> v.orElse((long) ZERO).intValue());
+    }
+
+    //按投放时间只读取已到期的任务, 每批按就绪队列分组后各执行一次PROMOTE, 开销与到期任务数成正比, 与等待中的任务数无关
+    //cluster布局下移入定时索引所在分片, STANDALONE布局下移入任务ID中记录的分片, 无法解析或超出分片数时移入第一个分片
+    @Override
+    public int promote(int batchSize) {
+        long now = context.timestamp();
+        Map<String, String> timerIndexes = new LinkedHashMap<>(); // 定时索引 -> 所属分片
+        context.getAllQueue().forEach(queue -> timerIndexes.putIfAbsent(context.timerIndex(queue), queue));
+        int promoted = ZERO;
+        for (Map.Entry<String, String> entry : timerIndexes.entrySet()) {
+            Collection<RedissonUtils.ScoredEntryEx<String>> due;
+            do {
+                due = context.getRedissonUtils().zrangeByScore(entry.getKey(), Double.NEGATIVE_INFINITY, now + FIRST, batchSize);
+                Map<String, List<Object>> groups = new LinkedHashMap<>(); // 就绪队列 -> 任务ID
+                due.forEach(task -> groups.computeIfAbsent(isCluster() ? entry.getValue()
+                        : context.queueOf(task.getValue(), context.getQueue(FIRST)), k -> new ArrayList<>()).add(task.getValue()));
+                for (Map.Entry<String, List<Object>> target : groups.entrySet()) {
+                    List<Object> args = new ArrayList<>();
+                    args.add(now);
+                    args.addAll(target.getValue());
+                    Optional<Long> count = context.getRedissonUtils().eval(RScript.Mode.READ_WRITE, PROMOTE,
+                            Arrays.asList(entry.getKey(), context.timerHash(target.getKey()), target.getKey()), args.toArray());
+                    promoted += count.orElse((long) ZERO).intValue();
+                    log.debug("TaskService:promote, queue: {}, size: {}, promoted: {}", target.getKey(), target.getValue().size(), count);
+                }
+            } while (due.size() >= batchSize);
+        }
+        return promoted;
+    }
+
+    @Override
+    public boolean delete(String queue, String id) {
+        Optional<Long> deleted = context.getRedissonUtils().eval(RScript.Mode.READ_WRITE, DELETE,
+                Arrays.asList(queue, context.payloadHash(queue)), id);
+        if (deleted.orElse((long) ZERO) > ZERO) {
+            return true;
+        }
+        Optional<Long> unscheduled = context.getRedissonUtils().eval(RScript.Mode.READ_WRITE, UNSCHEDULE,
+                Arrays.asList(context.timerIndex(queue), context.timerHash(queue), context.payloadHash(queue), context.attemptsHash(queue)), id);
+        return unscheduled.orElse((long) ZERO) > ZERO;
+    }
+
+    @Override
+    public Collection<RedissonUtils.ScoredEntryEx<Task<String>>> getQueue(String queue) {
+        Collection<RedissonUtils.ScoredEntryEx<String>> entries = context.getRedissonUtils().zrangebyscore(queue, ZERO, END_INDEX);
+        if (entries.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<String, String> payloads = context.getRedissonUtils().hmget(context.payloadHash(queue),
+                entries.stream().map(RedissonUtils.ScoredEntryEx::getValue).toArray(String[]::new));
+        return entries.stream()
+                .map(entry -> new RedissonUtils.ScoredEntryEx<>(entry.getScore(),
+                        new Task<>(entry.getValue(), payloads.getOrDefault(entry.getValue(), entry.getValue()))))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Optional<Task<String>> claim(String queue, String hashKey) {
+        List<String> values = context.getRedissonUtils().evalList(RScript.Mode.READ_WRITE, CLAIM,
+                Arrays.asList(queue, context.executeSet(hashKey, queue), context.payloadHash(queue), context.leaseIndex(queue)),
+                leaseDeadline(), leasePrefix(hashKey));
+        Optional<Task<String>> task = toTasks(queue, values).stream().findFirst();
+        log.debug("TaskService:claim, queue: {}, executeSet: {}, task: {}", queue, context.executeSet(hashKey, queue), task);
+        return task;
+    }
+
+    @Override
+    public List<Task<String>> claim(List<String> queues, String hashKey, int maxTasks) {
+        if (queues.isEmpty() || maxTasks <= ZERO) {
+            return Collections.emptyList();
+        }
+        if (isCluster()) {
+            // 逐个分片取出, 优先级只在分片内有序
+            List<Task<String>> tasks = new ArrayList<>();
+            for (String queue : queues) {
+                if (tasks.size() < maxTasks) {
+                    tasks.addAll(claimShard(queue, hashKey, maxTasks - tasks.size()));
+                }
             }
-            log.debug("[{}] commitExecuteTask, executeHash: {}, hashKey: {}, value: {}, oldHashValue: {}, newHashValue: {}",
-                    hashKey, context.executeHash(), hashKey, value, oldHashValue, hashValue);
-        });
+            return tasks;
+        }
+        List<Object> keys = new ArrayList<>(queues);
+        keys.add(context.executeSet(hashKey));
+        keys.add(context.payloadHash());
+        keys.add(context.leaseIndex());
+        List<String> values = context.getRedissonUtils().evalList(RScript.Mode.READ_WRITE, CLAIM_BATCH, keys, maxTasks, leaseDeadline(), leasePrefix(hashKey));
+        log.debug("TaskService:claim, queues: {}, executeSet: {}, maxTasks: {}, size: {}",
+                queues, context.executeSet(hashKey), maxTasks, values.size() / SECOND);
+        return toTasks(null, values);
+    }
+
+    @Override
+    public List<Task<String>> drain(String queue, String hashKey, int maxTasks) {
+        if (maxTasks <= ZERO) {
+            return Collections.emptyList();
+        }
+        List<String> values = context.getRedissonUtils().evalList(RScript.Mode.READ_WRITE, DRAIN,
+                Arrays.asList(queue, context.executeSet(hashKey, queue), context.resultHash(queue)), maxTasks);
+        log.debug("TaskService:drain, queue: {}, executeSet: {}, maxTasks: {}, size: {}",
+                queue, context.executeSet(hashKey, queue), maxTasks, values.size() / SECOND);
+        return toTasks(queue, values);
+    }
+
+    @Override
+    public List<Task<String>> drain(List<String> queues, String hashKey, int maxTasks) {
+        List<Task<String>> tasks = new ArrayList<>();
+        for (String queue : queues) {
+            if (tasks.size() < maxTasks) {
+                tasks.addAll(drain(queue, hashKey, maxTasks - tasks.size()));
+            }
+        }
+        return tasks;
+    }
+
+    @Override
+    public void sendExecuteQueue(String hashKey, String id) {
+        context.getRedissonUtils().sadd(context.executeSet(hashKey), id);
+        log.debug("TaskService:sendExecuteQueue, executeSet: {}, id: {}", context.executeSet(hashKey), id);
+    }
+
+    @Override
+    public void commitExecuteTask(String hashKey, String id) {
+        if (isCluster()) {
+            boolean removed = false;
+            for (String queue : shardsOf(id)) {
+                removed = commitResult(hashKey, queue, id);
+                if (removed) {
+                    break;
+                }
+            }
+            shardOf.remove(id);
+            log.debug("[{}] commitExecuteTask, id: {}, removed: {}", hashKey, id, removed);
+            return;
+        }
+        boolean removed = commitResult(hashKey, context.resultQueue(), id);
+        log.debug("[{}] commitExecuteTask, executeSet: {}, id: {}, removed: {}",
+                hashKey, context.executeSet(hashKey), id, removed);
+    }
+
+    @Override
+    public void commitAll(String hashKey, Map<String, String> values) {
+        if (values.isEmpty()) {
+            return;
+        }
+        if (isCluster()) {
+            groupByShard(values).forEach((queue, shardValues) -> context.getRedissonUtils().eval(RScript.Mode.READ_WRITE,
+                    COMMIT_OWNED, commitKeys(hashKey, queue), commitArgs(hashKey, shardValues)));
+            values.keySet().forEach(shardOf::remove);
+            log.debug("[{}] commitAll, size: {}", hashKey, values.size());
+            return;
+        }
+        context.getRedissonUtils().eval(RScript.Mode.READ_WRITE, commitScript(),
+                commitKeys(hashKey, context.resultQueue()), commitArgs(hashKey, values));
+        log.debug("[{}] commitAll, resultQueue: {}, executeSet: {}, size: {}",
+                hashKey, context.resultQueue(), context.executeSet(hashKey), values.size());
+    }
+
+    @Override
+    public Set<String> getExecuteQueue(String hashKey) {
+        if (isCluster()) {
+            Set<String> values = new HashSet<>();
+            context.executeSets(hashKey).forEach(executeSet -> values.addAll(context.getRedissonUtils().smembers(executeSet)));
+            return values;
+        }
+        return context.getRedissonUtils().smembers(context.executeSet(hashKey));
     }
 
     @Override
     public int getExecuteQueueSum(String hashKey) {
-        Optional<String> execute = context.getRedissonUtils().hget(context.executeHash(), hashKey);
-        return execute.map(s -> context.deleteSplit(s).size()).orElse(ZERO);
+        if (isCluster()) {
+            return context.executeSets(hashKey).stream().mapToInt(context.getRedissonUtils()::scard).sum();
+        }
+        return context.getRedissonUtils().scard(context.executeSet(hashKey));
+    }
+
+    //重试复用延时任务的定时索引, 由leader的promote放回就绪队列, 不需要额外的重试队列和调度线程
+    //随机系数使同一时刻失败的大量任务分散重试, 避免下游恢复时被同时涌入的重试再次压垮
+    @Override
+    public Status fail(String hashKey, String id, String cause) {
+        double jitter = FIRST - ThreadLocalRandom.current().nextDouble() * RETRY_JITTER;
+        List<String> queues = isCluster() ? shardsOf(id) : Collections.singletonList(context.queueOf(id, context.getQueue(FIRST)));
+        for (String queue : queues) {
+            Optional<Long> attempts = context.getRedissonUtils().eval(RScript.Mode.READ_WRITE, FAIL,
+                    Arrays.asList(context.executeSet(hashKey, queue), context.attemptsHash(queue), context.timerIndex(queue),
+                            context.deadIndex(queue), context.deadHash(queue), context.leaseIndex(queue)),
+                    id, leasePrefix(hashKey).concat(id), context.maxAttempts(), context.timestamp(), context.retryBackoff(),
+                    context.maxRetryBackoff(), jitter, cause == null ? EMPTY_STRING : cause);
+            long result = attempts.orElse((long) -FIRST);
+            if (result >= ZERO) {
+                shardOf.remove(id);
+                log.debug("[{}] fail, id: {}, attempts: {}, cause: {}", hashKey, id, result, cause);
+                return result == ZERO ? Status.DEAD : Status.RETRY;
+            }
+        }
+        log.debug("[{}] fail ignored, task is not in execute set, id: {}", hashKey, id);
+        return Status.NON_EXISTENT;
+    }
+
+    @Override
+    public List<DeadLetter<String>> getDeadLetters(int maxSize) {
+        Map<String, String> deadIndexes = new LinkedHashMap<>(); // 死信索引 -> 所属分片
+        context.getAllQueue().forEach(queue -> deadIndexes.putIfAbsent(context.deadIndex(queue), queue));
+        List<DeadLetter<String>> letters = new ArrayList<>();
+        deadIndexes.forEach((deadIndex, queue) -> {
+            Collection<RedissonUtils.ScoredEntryEx<String>> entries =
+                    context.getRedissonUtils().zrangeByScore(deadIndex, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, maxSize);
+            if (entries.isEmpty()) {
+                return;
+            }
+            String[] ids = entries.stream().map(RedissonUtils.ScoredEntryEx::getValue).toArray(String[]::new);
+            Map<String, String> causes = context.getRedissonUtils().hmget(context.deadHash(queue), ids);
+            Map<String, String> attempts = context.getRedissonUtils().hmget(context.attemptsHash(queue), ids);
+            Map<String, String> payloads = context.getRedissonUtils().hmget(context.payloadHash(queue), ids);
+            entries.forEach(entry -> letters.add(new DeadLetter<>(new Task<>(entry.getValue(), payloads.get(entry.getValue())),
+                    causes.get(entry.getValue()), Integer.parseInt(attempts.getOrDefault(entry.getValue(), String.valueOf(ZERO))),
+                    entry.getScore().longValue())));
+        });
+        return letters.stream().sorted(Comparator.comparingLong(DeadLetter::getDeadAt)).limit(maxSize).collect(Collectors.toList());
+    }
+
+    @Override
+    public int getDeadLetterSum() {
+        return context.deadIndexes().stream().mapToInt(context.getRedissonUtils()::zcard).sum();
+    }
+
+    @Override
+    public boolean redrive(String queue, String id) {
+        Optional<Long> redriven = context.getRedissonUtils().eval(RScript.Mode.READ_WRITE, DEAD_REDRIVE,
+                Arrays.asList(context.deadIndex(queue), context.deadHash(queue), context.attemptsHash(queue), queue), id);
+        return redriven.orElse((long) ZERO) > ZERO;
+    }
+
+    @Override
+    public boolean deleteDeadLetter(String queue, String id) {
+        Optional<Long> deleted = context.getRedissonUtils().eval(RScript.Mode.READ_WRITE, DEAD_DELETE,
+                Arrays.asList(context.deadIndex(queue), context.deadHash(queue), context.attemptsHash(queue), context.payloadHash(queue)), id);
+        return deleted.orElse((long) ZERO) > ZERO;
+    }
+
+    @Override
+    public boolean renew(String hashKey, String id) {
+        if (context.leaseTimeout() <= ZERO) {
+            return true;
+        }
+        for (String queue : isCluster() ? shardsOf(id) : Collections.singletonList(context.queueOf(id, context.getQueue(FIRST)))) {
+            Optional<Long> renewed = context.getRedissonUtils().eval(RScript.Mode.READ_WRITE, LEASE_RENEW,
+                    Collections.singletonList(context.leaseIndex(queue)), leaseDeadline(), leasePrefix(hashKey), id);
+            if (renewed.orElse((long) ZERO) > ZERO) {
+                return true;
+            }
+        }
+        log.debug("[{}] renew failed, lease expired or committed, id: {}", hashKey, id);
+        return false;
+    }
+
+    //按到期时间只读取已过期的租约, 每批按 节点+就绪队列 分组后各执行一次LEASE_REAP, 开销与过期任务数成正比
+    //cluster布局下放回租约所在分片, STANDALONE布局下放回任务ID中记录的分片, 无法解析或超出分片数时放回第一个分片
+    @Override
+    public int reap(int batchSize) {
+        long now = context.timestamp();
+        Map<String, String> leaseIndexes = new LinkedHashMap<>(); // 租约索引 -> 所属分片
+        context.getAllQueue().forEach(queue -> leaseIndexes.putIfAbsent(context.leaseIndex(queue), queue));
+        int requeued = ZERO;
+        for (Map.Entry<String, String> entry : leaseIndexes.entrySet()) {
+            Collection<RedissonUtils.ScoredEntryEx<String>> expired;
+            do {
+                expired = context.getRedissonUtils().zrangeByScore(entry.getKey(), Double.NEGATIVE_INFINITY, now + FIRST, batchSize);
+                Map<String, Map<String, List<Object>>> groups = new LinkedHashMap<>(); // 节点 -> 就绪队列 -> 任务ID
+                for (RedissonUtils.ScoredEntryEx<String> lease : expired) {
+                    String[] member = lease.getValue().split(HASH_VALUE_SPLIT_ESCAPE, SECOND);
+                    if (member.length < SECOND) { // 无法解析的成员直接删除, 避免每次都读取到
+                        context.getRedissonUtils().zrem(entry.getKey(), lease.getValue());
+                        continue;
+                    }
+                    String queue = isCluster() ? entry.getValue() : context.queueOf(member[FIRST], context.getQueue(FIRST));
+                    groups.computeIfAbsent(member[ZERO], k -> new LinkedHashMap<>())
+                            .computeIfAbsent(queue, k -> new ArrayList<>()).add(member[FIRST]);
+                }
+                for (Map.Entry<String, Map<String, List<Object>>> owner : groups.entrySet()) {
+                    for (Map.Entry<String, List<Object>> target : owner.getValue().entrySet()) {
+                        List<Object> args = new ArrayList<>();
+                        args.add(now);
+                        args.add(leasePrefix(owner.getKey()));
+                        args.add(context.maxAttempts());
+                        args.add(LEASE_EXPIRED_CAUSE);
+                        args.addAll(target.getValue());
+                        String queue = target.getKey();
+                        Optional<Long> count = context.getRedissonUtils().eval(RScript.Mode.READ_WRITE, LEASE_REAP,
+                                Arrays.asList(entry.getKey(), context.executeSet(owner.getKey(), queue), queue,
+                                        context.attemptsHash(queue), context.deadIndex(queue), context.deadHash(queue)),
+                                args.toArray());
+                        requeued += count.orElse((long) ZERO).intValue();
+                        log.warn("lease expired, node: {}, queue: {}, ids: {}, requeued: {}", owner.getKey(), target.getKey(),
+                                target.getValue(), count.orElse((long) ZERO));
+                    }
+                }
+            } while (expired.size() >= batchSize);
+        }
+        return requeued;
+    }
+
+    @Override
+    public CompletableFuture<Optional<Task<String>>> claimAsync(String queue, String hashKey) {
+        CompletableFuture<List<String>> values = context.getRedissonUtils().evalListAsync(RScript.Mode.READ_WRITE, CLAIM,
+                Arrays.asList(queue, context.executeSet(hashKey, queue), context.payloadHash(queue), context.leaseIndex(queue)),
+                leaseDeadline(), leasePrefix(hashKey));
+        return values.thenApply(list -> toTasks(queue, list).stream().findFirst());
+    }
+
+    @Override
+    public CompletableFuture<List<Task<String>>> claimAsync(List<String> queues, String hashKey, int maxTasks) {
+        if (queues.isEmpty() || maxTasks <= ZERO) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        if (isCluster()) {
+            return eachShardAsync(queues, maxTasks, (queue, remaining) -> claimShardAsync(queue, hashKey, remaining));
+        }
+        List<Object> keys = new ArrayList<>(queues);
+        keys.add(context.executeSet(hashKey));
+        keys.add(context.payloadHash());
+        keys.add(context.leaseIndex());
+        CompletableFuture<List<String>> values = context.getRedissonUtils().evalListAsync(RScript.Mode.READ_WRITE, CLAIM_BATCH, keys, maxTasks, leaseDeadline(), leasePrefix(hashKey));
+        return values.thenApply(list -> toTasks(null, list));
+    }
+
+    @Override
+    public CompletableFuture<List<Task<String>>> drainAsync(String queue, String hashKey, int maxTasks) {
+        if (maxTasks <= ZERO) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        CompletableFuture<List<String>> values = context.getRedissonUtils().evalListAsync(RScript.Mode.READ_WRITE, DRAIN,
+                Arrays.asList(queue, context.executeSet(hashKey, queue), context.resultHash(queue)), maxTasks);
+        return values.thenApply(list -> toTasks(queue, list));
+    }
+
+    @Override
+    public CompletableFuture<List<Task<String>>> drainAsync(List<String> queues, String hashKey, int maxTasks) {
+        return eachShardAsync(queues, maxTasks, (queue, remaining) -> drainAsync(queue, hashKey, remaining));
+    }
+
+    @Override
+    public CompletableFuture<Void> commitAllAsync(String hashKey, Map<String, String> values) {
+        if (values.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (isCluster()) {
+            List<CompletableFuture<?>> futures = new ArrayList<>();
+            groupByShard(values).forEach((queue, shardValues) -> futures.add(context.getRedissonUtils().evalAsync(
+                    RScript.Mode.READ_WRITE, COMMIT_OWNED, commitKeys(hashKey, queue), commitArgs(hashKey, shardValues))));
+            return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                    .thenRun(() -> values.keySet().forEach(shardOf::remove));
+        }
+        return context.getRedissonUtils().evalAsync(RScript.Mode.READ_WRITE, commitScript(),
+                commitKeys(hashKey, context.resultQueue()), commitArgs(hashKey, values))
+                .thenApply(v -> null);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> commitExecuteTaskAsync(String hashKey, String id) {
+        if (isCluster()) {
+            CompletableFuture<Boolean> removed = CompletableFuture.completedFuture(false);
+            for (String queue : shardsOf(id)) {
+                removed = removed.thenCompose(done -> done ? CompletableFuture.completedFuture(true)
+                        : commitResultAsync(hashKey, queue, id));
+            }
+            return removed.whenComplete((done, e) -> shardOf.remove(id));
+        }
+        return commitResultAsync(hashKey, context.resultQueue(), id);
+    }
+
+    @Override
+    public CompletableFuture<Integer> getExecuteQueueSumAsync(String hashKey) {
+        if (isCluster()) {
+            CompletableFuture<Integer> sum = CompletableFuture.completedFuture(ZERO);
+            for (String executeSet : context.executeSets(hashKey)) {
+                sum = sum.thenCombine(context.getRedissonUtils().scardAsync(executeSet), Integer::sum);
+            }
+            return sum;
+        }
+        return context.getRedissonUtils().scardAsync(context.executeSet(hashKey));
+    }
+
+    private boolean isCluster() {
+        return context.keyLayout() == KeyLayout.CLUSTER;
+    }
+
+    // 租约到期时间, 未启用租约时为0, 脚本不写入租约索引
+    private long leaseDeadline() {
+        return context.leaseTimeout() > ZERO ? context.timestamp() + context.leaseTimeout() : ZERO;
+    }
+
+    // 租约索引中的成员为 节点^codewave^任务ID, 回收时据此找到节点的执行队列
+    private String leasePrefix(String hashKey) {
+        return hashKey.concat(HASH_VALUE_SPLIT);
+    }
+
+    // 脚本返回的 任务ID1, 数据1, 任务ID2, 数据2 ... 转换为任务, cluster布局下同时记录任务所在分片
+    private List<Task<String>> toTasks(String queue, List<String> values) {
+        List<Task<String>> tasks = new ArrayList<>(values.size() / SECOND);
+        for (int i = ZERO; i + FIRST < values.size(); i += SECOND) {
+            tasks.add(new Task<>(values.get(i), values.get(i + FIRST)));
+            if (queue != null && isCluster()) {
+                shardOf.put(values.get(i), queue);
+            }
+        }
+        return tasks;
+    }
+
+    private List<Task<String>> claimShard(String queue, String hashKey, int maxTasks) {
+        List<String> values = context.getRedissonUtils().evalList(RScript.Mode.READ_WRITE, CLAIM_BATCH,
+                Arrays.asList(queue, context.executeSet(hashKey, queue), context.payloadHash(queue), context.leaseIndex(queue)),
+                maxTasks, leaseDeadline(), leasePrefix(hashKey));
+        return toTasks(queue, values);
+    }
+
+    private CompletableFuture<List<Task<String>>> claimShardAsync(String queue, String hashKey, int maxTasks) {
+        CompletableFuture<List<String>> values = context.getRedissonUtils().evalListAsync(RScript.Mode.READ_WRITE, CLAIM_BATCH,
+                Arrays.asList(queue, context.executeSet(hashKey, queue), context.payloadHash(queue), context.leaseIndex(queue)),
+                maxTasks, leaseDeadline(), leasePrefix(hashKey));
+        return values.thenApply(list -> toTasks(queue, list));
+    }
+
+    // 依次访问各个分片, 直到取满maxTasks个
+    private CompletableFuture<List<Task<String>>> eachShardAsync(List<String> queues, int maxTasks,
+                                                                 BiFunction<String, Integer, CompletableFuture<List<Task<String>>>> fetch) {
+        CompletableFuture<List<Task<String>>> result = CompletableFuture.completedFuture(new ArrayList<>());
+        for (String queue : queues) {
+            result = result.thenCompose(tasks -> tasks.size() >= maxTasks ? CompletableFuture.completedFuture(tasks)
+                    : fetch.apply(queue, maxTasks - tasks.size()).thenApply(list -> {
+                        tasks.addAll(list);
+                        return tasks;
+                    }));
+        }
+        return result;
+    }
+
+    private boolean commitResult(String hashKey, String queue, String id) {
+        Optional<Long> removed = context.getRedissonUtils().eval(RScript.Mode.READ_WRITE, COMMIT_RESULT,
+                Arrays.asList(context.executeSet(hashKey, queue), context.resultHash(queue)), id);
+        return removed.orElse((long) ZERO) > ZERO;
+    }
+
+    private CompletableFuture<Boolean> commitResultAsync(String hashKey, String queue, String id) {
+        CompletableFuture<Optional<Long>> removed = context.getRedissonUtils().evalAsync(RScript.Mode.READ_WRITE, COMMIT_RESULT,
+                Arrays.asList(context.executeSet(hashKey, queue), context.resultHash(queue)), id);
+        return removed.thenApply(v -> v.orElse((long) ZERO) > ZERO);
+    }
+
+    // 任务所在分片, 本地没有记录时(如进程重启前取出的任务)依次尝试全部分片
+    private List<String> shardsOf(String id) {
+        String queue = shardOf.get(id);
+        return queue != null ? Collections.singletonList(queue) : context.getAllQueue();
+    }
+
+    // 按分片拆分待提交的任务, 本地没有记录的任务在每个分片上各提交一次, 由COMMIT_OWNED保证只在所属分片写入结果
+    private Map<String, Map<String, String>> groupByShard(Map<String, String> values) {
+        Map<String, Map<String, String>> grouped = new LinkedHashMap<>();
+        Map<String, String> unknown = new HashMap<>();
+        values.forEach((id, result) -> {
+            String queue = shardOf.get(id);
+            if (queue == null) {
+                unknown.put(id, result);
+            } else {
+                grouped.computeIfAbsent(queue, k -> new LinkedHashMap<>()).put(id, result);
+            }
+        });
+        if (!unknown.isEmpty()) {
+            context.getAllQueue().forEach(queue -> grouped.computeIfAbsent(queue, k -> new LinkedHashMap<>()).putAll(unknown));
+        }
+        return grouped;
+    }
+
+    // 启用租约时过期的任务可能已被放回就绪队列, 只提交仍在执行队列中的任务
+    private String commitScript() {
+        return context.leaseTimeout() > ZERO ? COMMIT_OWNED : COMMIT_BATCH;
+    }
+
+    // COMMIT_BATCH/COMMIT_OWNED的KEYS, queue为任务所在分片的任意key
+    private List<Object> commitKeys(String hashKey, String queue) {
+        return Arrays.asList(context.resultQueue(queue), context.executeSet(hashKey, queue),
+                context.resultHash(queue), context.payloadHash(queue), context.leaseIndex(queue), context.attemptsHash(queue));
+    }
+
+    // COMMIT_BATCH的参数: 租约成员前缀, 任务ID1, 结果1, 任务ID2, 结果2 ...
+    private Object[] commitArgs(String hashKey, Map<String, String> values) {
+        Object[] args = new Object[values.size() * SECOND + FIRST];
+        int i = ZERO;
+        args[i++] = leasePrefix(hashKey);
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            args[i++] = entry.getKey();
+            args[i++] = entry.getValue();
+        }
+        return args;
+    }
+
+    // SEND的参数: 任务ID1, score1, 任务数据1 ...
+    // SCHEDULE的KEYS, 定时索引、timer hash与payload hash和就绪队列位于同一个slot
+    private List<Object> scheduleKeys(String queue) {
+        return Arrays.asList(context.timerIndex(queue), context.timerHash(queue), context.payloadHash(queue));
+    }
+
+    // SCHEDULE的参数: 投放时间, 之后同SEND
+    private Object[] scheduleArgs(Map<Task<String>, Double> tasks, long deliverAt) {
+        Object[] args = new Object[tasks.size() * THIRD + FIRST];
+        args[ZERO] = deliverAt;
+        System.arraycopy(sendArgs(tasks), ZERO, args, FIRST, tasks.size() * THIRD);
+        return args;
+    }
+
+    private Object[] sendArgs(Map<Task<String>, Double> tasks) {
+        Object[] args = new Object[tasks.size() * THIRD];
+        int i = ZERO;
+        for (Map.Entry<Task<String>, Double> entry : tasks.entrySet()) {
+            args[i++] = entry.getKey().getId();
+            args[i++] = String.valueOf(entry.getValue());
+            args[i++] = entry.getKey().getPayload();
+        }
+        return args;
     }
 }
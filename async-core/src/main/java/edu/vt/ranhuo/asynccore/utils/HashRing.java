@@ -0,0 +1,238 @@
+package edu.vt.ranhuo.asynccore.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * 一致性哈希环, 虚拟节点的哈希值保存在有序的long数组中, owners[i]为points[i]所属节点在nodes中的下标
+ * 增删节点时只计算该节点自身的虚拟节点并与现有数组归并, 不重建整个环; 查找使用二分查找
+ * 非线程安全, 由调用方保证同一时刻只有一个线程修改
+ */
+public class HashRing {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final int virtualNodes;
+    private final Set<String> nodes = new LinkedHashSet<>();
+    private String[] nodeTable = new String[0];
+    private long[] points = new long[0];
+    private int[] owners = new int[0];
+
+    public HashRing(int virtualNodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("virtualNodes must be positive: " + virtualNodes);
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    public Set<String> getNodes() {
+        return nodes;
+    }
+
+    public int size() {
+        return points.length;
+    }
+
+    /**
+     * 加入节点, 已存在时忽略
+     */
+    public void add(String node) {
+        addAll(Collections.singleton(node));
+    }
+
+    /**
+     * 批量加入节点, 所有新节点的虚拟节点排序后与现有数组只归并一次
+     */
+    public void addAll(Collection<String> added) {
+        List<String> newNodes = new ArrayList<>();
+        for (String node : added) {
+            if (nodes.add(node)) {
+                newNodes.add(node);
+            }
+        }
+        if (newNodes.isEmpty()) {
+            return;
+        }
+        int base = nodeTable.length;
+        nodeTable = Arrays.copyOf(nodeTable, base + newNodes.size());
+        // 每个新节点的虚拟节点先各自排序, 再两两归并, 避免逐个节点与整个环归并
+        List<long[]> runPoints = new ArrayList<>();
+        List<int[]> runOwners = new ArrayList<>();
+        for (int n = 0; n < newNodes.size(); n++) {
+            nodeTable[base + n] = newNodes.get(n);
+            long[] nodePoints = new long[virtualNodes];
+            for (int i = 0; i < virtualNodes; i++) {
+                nodePoints[i] = hash(newNodes.get(n) + "#" + i);
+            }
+            Arrays.sort(nodePoints);
+            int[] nodeOwners = new int[virtualNodes];
+            Arrays.fill(nodeOwners, base + n);
+            runPoints.add(nodePoints);
+            runOwners.add(nodeOwners);
+        }
+        runPoints.add(points);
+        runOwners.add(owners);
+        while (runPoints.size() > 1) {
+            List<long[]> mergedPoints = new ArrayList<>();
+            List<int[]> mergedOwners = new ArrayList<>();
+            for (int r = 0; r < runPoints.size(); r += 2) {
+                if (r + 1 == runPoints.size()) {
+                    mergedPoints.add(runPoints.get(r));
+                    mergedOwners.add(runOwners.get(r));
+                } else {
+                    merge(runPoints.get(r), runOwners.get(r), runPoints.get(r + 1), runOwners.get(r + 1), mergedPoints, mergedOwners);
+                }
+            }
+            runPoints = mergedPoints;
+            runOwners = mergedOwners;
+        }
+        points = runPoints.get(0);
+        owners = runOwners.get(0);
+    }
+
+    // 两个有序数组归并
+    private static void merge(long[] leftPoints, int[] leftOwners, long[] rightPoints, int[] rightOwners,
+                              List<long[]> mergedPoints, List<int[]> mergedOwners) {
+        long[] targetPoints = new long[leftPoints.length + rightPoints.length];
+        int[] targetOwners = new int[targetPoints.length];
+        int i = 0, j = 0, k = 0;
+        while (i < leftPoints.length || j < rightPoints.length) {
+            if (j == rightPoints.length || (i < leftPoints.length && leftPoints[i] <= rightPoints[j])) {
+                targetPoints[k] = leftPoints[i];
+                targetOwners[k++] = leftOwners[i++];
+            } else {
+                targetPoints[k] = rightPoints[j];
+                targetOwners[k++] = rightOwners[j++];
+            }
+        }
+        mergedPoints.add(targetPoints);
+        mergedOwners.add(targetOwners);
+    }
+
+    /**
+     * 移除节点及其虚拟节点, 不需要重新计算哈希
+     */
+    public void remove(String node) {
+        if (!nodes.remove(node)) {
+            return;
+        }
+        int owner = Arrays.asList(nodeTable).indexOf(node);
+        long[] keptPoints = new long[points.length - virtualNodes];
+        int[] keptOwners = new int[keptPoints.length];
+        int k = 0;
+        for (int i = 0; i < points.length; i++) {
+            if (owners[i] != owner) {
+                keptPoints[k] = points[i];
+                // 节点表中owner之后的下标前移一位
+                keptOwners[k++] = owners[i] > owner ? owners[i] - 1 : owners[i];
+            }
+        }
+        String[] table = new String[nodeTable.length - 1];
+        System.arraycopy(nodeTable, 0, table, 0, owner);
+        System.arraycopy(nodeTable, owner + 1, table, owner, table.length - owner);
+        nodeTable = table;
+        points = keptPoints;
+        owners = keptOwners;
+    }
+
+    /**
+     * 顺时针找到key对应的第一个节点, 超过环上最大值时回到第一个节点
+     */
+    public Optional<String> locate(String key) {
+        if (points.length == 0) {
+            return Optional.empty();
+        }
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        if (index == points.length) {
+            index = 0;
+        }
+        return Optional.of(nodeTable[owners[index]]);
+    }
+
+    /**
+     * MurmurHash3 x64_128的前64位
+     */
+    public static long hash(String key) {
+        byte[] data = key.getBytes(StandardCharsets.UTF_8);
+        int blocks = data.length >>> 4;
+        long h1 = 0, h2 = 0;
+        for (int i = 0; i < blocks; i++) {
+            long k1 = getLong(data, i << 4);
+            long k2 = getLong(data, (i << 4) + 8);
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        long k1 = 0, k2 = 0;
+        int tail = blocks << 4;
+        switch (data.length & 15) {
+            case 15: k2 ^= (long) (data[tail + 14] & 0xff) << 48;
+            case 14: k2 ^= (long) (data[tail + 13] & 0xff) << 40;
+            case 13: k2 ^= (long) (data[tail + 12] & 0xff) << 32;
+            case 12: k2 ^= (long) (data[tail + 11] & 0xff) << 24;
+            case 11: k2 ^= (long) (data[tail + 10] & 0xff) << 16;
+            case 10: k2 ^= (long) (data[tail + 9] & 0xff) << 8;
+            case 9: k2 ^= data[tail + 8] & 0xff;
+                h2 ^= mixK2(k2);
+            case 8: k1 ^= (long) (data[tail + 7] & 0xff) << 56;
+            case 7: k1 ^= (long) (data[tail + 6] & 0xff) << 48;
+            case 6: k1 ^= (long) (data[tail + 5] & 0xff) << 40;
+            case 5: k1 ^= (long) (data[tail + 4] & 0xff) << 32;
+            case 4: k1 ^= (long) (data[tail + 3] & 0xff) << 24;
+            case 3: k1 ^= (long) (data[tail + 2] & 0xff) << 16;
+            case 2: k1 ^= (long) (data[tail + 1] & 0xff) << 8;
+            case 1: k1 ^= data[tail] & 0xff;
+                h1 ^= mixK1(k1);
+            default:
+        }
+        h1 ^= data.length;
+        h2 ^= data.length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        return h1 + h2;
+    }
+
+    private static long getLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = (value << 8) | (data[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
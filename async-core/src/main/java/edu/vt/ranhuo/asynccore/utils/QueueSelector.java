@@ -3,23 +3,29 @@ package edu.vt.ranhuo.asynccore.utils;
 import edu.vt.ranhuo.asynccore.enums.QueueType;
 
 import java.util.Random;
+import java.util.function.IntSupplier;
 
 /**
  * 队列选择器
  * 1 以循环方式选择队列
  * 2 以随机方式选择队列，根据score的不同，会有不同的权重
+ * 队列数通过IntSupplier读取, 运行中扩容分片后立即生效
  */
 public class QueueSelector {
 
-    private final int num;
+    private final IntSupplier num;
     private final Random random;
 
     private int currentQueue;
 
     public QueueSelector(int num) {
-        if (num < 1 || num > 9) {
-            throw new IllegalArgumentException("num must be between 1 and 9.");
+        this(() -> num);
+        if (num < 1) {
+            throw new IllegalArgumentException("num must be positive.");
         }
+    }
+
+    public QueueSelector(IntSupplier num) {
         this.num = num;
         this.currentQueue = 0; // 初始化为0，下一次调用时返回1号队列
         this.random = new Random();
@@ -48,31 +54,36 @@ public class QueueSelector {
 
     public int getQueueForSlave() {
         // 为slave优先返回序号小的队列
-        return 1 + random.nextInt(num);
+        return 1 + random.nextInt(num.getAsInt());
     }
 
-    public int getNextQueue() {
-        currentQueue = (currentQueue % num) + 1; // 更新当前队列序号
+    public synchronized int getNextQueue() {
+        currentQueue = (currentQueue % num.getAsInt()) + 1; // 更新当前队列序号
         return currentQueue;
     }
 
     private int weightedRandomQueue(int[] weights) {
-        // 计算总权重
+        int queueNum = num.getAsInt();
+        // 计算总权重, 超过9个队列时沿用最后一个权重
         int totalWeight = 0;
-        for (int i = 0; i < num && i < weights.length; i++) {
-            totalWeight += weights[i];
+        for (int i = 0; i < queueNum; i++) {
+            totalWeight += weight(weights, i);
         }
 
         // 生成一个随机数决定选哪个队列
         int randomIndex = random.nextInt(totalWeight);
         int sum = 0;
-        for (int i = 0; i < num; i++) {
-            sum += weights[i];
+        for (int i = 0; i < queueNum; i++) {
+            sum += weight(weights, i);
             if (randomIndex < sum) {
                 return i + 1; // 队列序号从1开始
             }
         }
 
-        return num; // 默认返回最后一个队列
+        return queueNum; // 默认返回最后一个队列
+    }
+
+    private static int weight(int[] weights, int index) {
+        return weights[Math.min(index, weights.length - 1)];
     }
 }
@@ -0,0 +1,53 @@
+package edu.vt.ranhuo.asynccore.utils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 队列长度快照, 用于slave窃取任务时选择最长的队列
+ * 快照在ttl内复用, 过期后通过管道一次性重新获取所有队列的长度, 避免每次窃取都逐个执行ZCARD
+ */
+public class QueueSizeSnapshot {
+    private final RedissonUtils redissonUtils;
+    private final long ttl;
+    private Map<String, Integer> sizes = Collections.emptyMap();
+    private long expireAt;
+
+    public QueueSizeSnapshot(RedissonUtils redissonUtils, long ttl) {
+        this.redissonUtils = redissonUtils;
+        this.ttl = ttl;
+    }
+
+    /**
+     * 获取候选队列中任务最多的队列, 所有候选队列都为空时返回空Optional
+     */
+    public synchronized Optional<String> longest(List<String> queues) {
+        if (queues.isEmpty()) {
+            return Optional.empty();
+        }
+        long now = System.currentTimeMillis();
+        if (now >= expireAt || !sizes.keySet().containsAll(queues)) {
+            sizes = redissonUtils.zcardBatch(queues);
+            expireAt = now + ttl;
+        }
+        String longest = null;
+        int max = 0;
+        for (String queue : queues) {
+            int size = sizes.getOrDefault(queue, 0);
+            if (size > max) {
+                longest = queue;
+                max = size;
+            }
+        }
+        return Optional.ofNullable(longest);
+    }
+
+    /**
+     * 快照与实际不符时(例如从快照中最长的队列没有取到任务)使快照失效, 下次调用重新获取
+     */
+    public synchronized void invalidate() {
+        expireAt = 0;
+    }
+}
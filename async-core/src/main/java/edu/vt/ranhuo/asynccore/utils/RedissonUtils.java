@@ -1,11 +1,13 @@
 package edu.vt.ranhuo.asynccore.utils;
 
 import org.redisson.api.*;
+import org.redisson.client.codec.Codec;
 import org.redisson.client.protocol.ScoredEntry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -14,9 +16,15 @@ public class RedissonUtils {
     private static final Logger log = LoggerFactory.getLogger(RedissonUtils.class);
     private static volatile RedissonUtils instance;
     private  RedissonClient redisson;
+    private final Codec codec;
 
     private RedissonUtils(RedissonClient redisson) {
+        this(redisson, redisson.getConfig().getCodec());
+    }
+
+    private RedissonUtils(RedissonClient redisson, Codec codec) {
         this.redisson = redisson;
+        this.codec = codec;
     }
 
     public static RedissonUtils getInstance(Optional<RedissonClient> redisson) {
@@ -36,181 +44,320 @@ public class RedissonUtils {
         return instance;
     }
 
+    /**
+     * 基于同一个RedissonClient创建使用指定编解码器的工具实例, 不影响单例本身
+     */
+    public RedissonUtils withCodec(Codec codec) {
+        return new RedissonUtils(this.redisson, codec);
+    }
+
     public RedissonClient getRedisson() {
         return this.redisson;
     }
 
+    public Codec getCodec() {
+        return this.codec;
+    }
+
     public <T> Optional<T> get(String key) {
-        RBucket<T> bucket = this.redisson.getBucket(key);
+        RBucket<T> bucket = this.redisson.getBucket(key, this.codec);
         return Optional.ofNullable(bucket.get());
     }
 
     public <T> void set(String key, T value) {
-        RBucket<T> bucket = this.redisson.getBucket(key);
+        RBucket<T> bucket = this.redisson.getBucket(key, this.codec);
         bucket.set(value);
     }
 
     public <T> void setex(String key, T value, long timeToLive, TimeUnit timeUnit) {
-        RBucket<T> bucket = this.redisson.getBucket(key);
+        RBucket<T> bucket = this.redisson.getBucket(key, this.codec);
         bucket.set(value, timeToLive, timeUnit);
     }
 
+    public long incr(String key) {
+        return this.redisson.getAtomicLong(key).incrementAndGet();
+    }
+
+    public long getLong(String key) {
+        return this.redisson.getAtomicLong(key).get();
+    }
+
     public boolean del(String key) {
-        return this.redisson.getBucket(key).delete();
+        return this.redisson.getBucket(key, this.codec).delete();
     }
 
     public boolean exists(String key) {
-        return this.redisson.getBucket(key).isExists();
+        return this.redisson.getBucket(key, this.codec).isExists();
     }
 
     public <T> Optional<List<T>> lrange(String key, int fromIndex, int toIndex) {
-        RList<T> list = this.redisson.getList(key);
+        RList<T> list = this.redisson.getList(key, this.codec);
         return list.size() == 0 ? Optional.empty() : Optional.of(list.subList(fromIndex, toIndex));
     }
 
     public <T> Optional<T> lpop(String key) {
-        RQueue<T> queue = this.redisson.getQueue(key);
+        RQueue<T> queue = this.redisson.getQueue(key, this.codec);
         return Optional.ofNullable(queue.poll());
     }
 
     public <T> Optional<T> rpop(String key) {
-        RDeque<T> deque = this.redisson.getDeque(key);
+        RDeque<T> deque = this.redisson.getDeque(key, this.codec);
         return Optional.ofNullable(deque.pollLast());
     }
 
     public <T> Optional<T> rlpop(String key) {
-        RList<T> list = this.redisson.getList(key);
+        RList<T> list = this.redisson.getList(key, this.codec);
         return Optional.ofNullable(list.get(0));
     }
 
     public <T> Optional<T> rrpop(String key) {
-        RList<T> list = this.redisson.getList(key);
+        RList<T> list = this.redisson.getList(key, this.codec);
         return Optional.ofNullable(list.get(list.size() - 1));
     }
 
     public <T> Optional<T> rpoplpush(String source, String destination) {
-        RDeque<T> deque = this.redisson.getDeque(source);
+        RDeque<T> deque = this.redisson.getDeque(source, this.codec);
         return Optional.ofNullable(deque.pollLastAndOfferFirstTo(destination));
     }
 
     public void lrem(String key, int index) {
         if (this.exists(key)) {
-            this.redisson.getList(key).fastRemove(index);
+            this.redisson.getList(key, this.codec).fastRemove(index);
         }
 
     }
 
     public <V> void lpush(String key, V elements) {
-        this.redisson.getDeque(key).addFirst(elements);
+        this.redisson.getDeque(key, this.codec).addFirst(elements);
     }
 
     public <V> boolean rpush(String key, V elements) {
-        return this.redisson.getList(key).add(elements);
+        return this.redisson.getList(key, this.codec).add(elements);
     }
 
     public <V> void lset(String key, int index, V element) {
         if (this.exists(key)) {
-            this.redisson.getList(key).fastSet(index, element);
+            this.redisson.getList(key, this.codec).fastSet(index, element);
         }
 
     }
 
     public int llen(String key) {
-        return this.redisson.getList(key).size();
+        return this.redisson.getList(key, this.codec).size();
     }
 
     @SafeVarargs
     public final <K> long hdel(String key, K... keys) {
-        return this.redisson.getMap(key).fastRemove(keys);
+        return this.redisson.getMap(key, this.codec).fastRemove(keys);
     }
 
     public <K> boolean hexists(String key, K k) {
-        return this.redisson.getMap(key).containsKey(k);
+        return this.redisson.getMap(key, this.codec).containsKey(k);
     }
 
     public <K, V> Optional<V> hget(String key, K k) {
-        RMap<K, V> map = this.redisson.getMap(key);
+        RMap<K, V> map = this.redisson.getMap(key, this.codec);
         return Optional.ofNullable(map.get(k));
     }
 
     public <K, V> Map<K, V> hgetall(String key) {
-        RMap<K, V> map = this.redisson.getMap(key);
+        RMap<K, V> map = this.redisson.getMap(key, this.codec);
         return (Map) map.readAllEntrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
     }
 
     @SafeVarargs
     public final <K, V> Map<K, V> hmget(String key, K... k) {
-        RMap<K, V> map = this.redisson.getMap(key);
+        RMap<K, V> map = this.redisson.getMap(key, this.codec);
         Set<K> collect = (Set) Arrays.stream(k).collect(Collectors.toSet());
         return map.getAll(collect);
     }
 
     public <K> Set<K> hkeys(String key) {
-        RMap<K, Object> map = this.redisson.getMap(key);
+        RMap<K, Object> map = this.redisson.getMap(key, this.codec);
         return map.readAllKeySet();
     }
 
     public <V> Collection<V> hvals(String key) {
-        RMap<Object, V> map = this.redisson.getMap(key);
+        RMap<Object, V> map = this.redisson.getMap(key, this.codec);
         return map.readAllValues();
     }
 
     public int hlen(String key) {
-        return this.redisson.getMap(key).size();
+        return this.redisson.getMap(key, this.codec).size();
     }
 
     public <K, V> void hset(String key, K field, V value) {
-        RMap<K, V> map = this.redisson.getMap(key);
+        RMap<K, V> map = this.redisson.getMap(key, this.codec);
         map.put(field, value);
     }
 
     public <K, V> void hmset(String key, Map<? extends K, ? extends V> map, int batchSize) {
-        this.redisson.getMap(key).putAll(map, batchSize);
+        this.redisson.getMap(key, this.codec).putAll(map, batchSize);
     }
 
     public <V> boolean zadd(String key, double score, V v) {
-        RScoredSortedSet<V> sortedSet = this.redisson.getScoredSortedSet(key);
+        RScoredSortedSet<V> sortedSet = this.redisson.getScoredSortedSet(key, this.codec);
         return sortedSet.add(score, v);
     }
 
+    public <V> boolean sadd(String key, V v) {
+        RSet<V> set = this.redisson.getSet(key, this.codec);
+        return set.add(v);
+    }
+
+    public <V> boolean srem(String key, V v) {
+        RSet<V> set = this.redisson.getSet(key, this.codec);
+        return set.remove(v);
+    }
+
+    public <V> Set<V> smembers(String key) {
+        RSet<V> set = this.redisson.getSet(key, this.codec);
+        return set.readAll();
+    }
+
+    public int scard(String key) {
+        return this.redisson.getSet(key, this.codec).size();
+    }
+
+    /**
+     * 通过RBatch管道批量写入多个zset, 每个成员单独ZADD以便返回各自的写入结果, 整批只需一次网络往返
+     *
+     * @param entries key -> (成员 -> score)
+     * @return 成员 -> 是否为新增成员
+     */
+    public <V> Map<V, Boolean> zaddBatch(Map<String, Map<V, Double>> entries) {
+        RBatch batch = this.redisson.createBatch();
+        Map<V, RFuture<Boolean>> futures = new LinkedHashMap<>();
+        entries.forEach((key, members) -> {
+            RScoredSortedSetAsync<V> sortedSet = batch.getScoredSortedSet(key, this.codec);
+            members.forEach((v, score) -> futures.put(v, sortedSet.addAsync(score, v)));
+        });
+        batch.execute();
+        Map<V, Boolean> result = new LinkedHashMap<>();
+        futures.forEach((v, future) -> result.put(v, future.toCompletableFuture().join()));
+        return result;
+    }
+
     public int zcard(String key) {
-        return this.redisson.getScoredSortedSet(key).size();
+        return this.redisson.getScoredSortedSet(key, this.codec).size();
+    }
+
+    /**
+     * 通过RBatch管道一次网络往返获取多个zset的长度
+     *
+     * @return key -> zset长度, 保持传入顺序
+     */
+    public Map<String, Integer> zcardBatch(Collection<String> keys) {
+        RBatch batch = this.redisson.createBatch();
+        Map<String, RFuture<Integer>> futures = new LinkedHashMap<>();
+        keys.forEach(key -> futures.put(key, batch.getScoredSortedSet(key, this.codec).sizeAsync()));
+        batch.execute();
+        Map<String, Integer> result = new LinkedHashMap<>();
+        futures.forEach((key, future) -> result.put(key, future.toCompletableFuture().join()));
+        return result;
     }
 
     public <V> Collection<V> zrange(String key, int startIndex, int endIndex) {
-        RScoredSortedSet<V> sortedSet = this.redisson.getScoredSortedSet(key);
+        RScoredSortedSet<V> sortedSet = this.redisson.getScoredSortedSet(key, this.codec);
         return sortedSet.valueRange(startIndex, endIndex);
     }
 
     public <V> Optional<V> zrpop(String key) {
-        RScoredSortedSet<V> sortedSet = this.redisson.getScoredSortedSet(key);
+        RScoredSortedSet<V> sortedSet = this.redisson.getScoredSortedSet(key, this.codec);
         Iterator<V> iterator = sortedSet.valueRange(-1, -1).iterator();
         return iterator.hasNext() ? Optional.of(iterator.next()) : Optional.empty();
     }
 
     public <V> Collection<ScoredEntryEx<V>> zrangebyscore(String key, int startIndex, int endIndex) {
-        RScoredSortedSet<V> sortedSet = this.redisson.getScoredSortedSet(key);
+        RScoredSortedSet<V> sortedSet = this.redisson.getScoredSortedSet(key, this.codec);
         return (Collection) sortedSet.entryRange(startIndex, endIndex).stream().map((x$0) -> {
             return new ScoredEntryEx(x$0);
         }).collect(Collectors.toList());
     }
 
+    /**
+     * 获取score在[min, max)区间内的成员, 按score从小到大排列, O(log n + k)
+     */
+    public <V> Collection<ScoredEntryEx<V>> zrangeByScore(String key, double min, double max) {
+        RScoredSortedSet<V> sortedSet = this.redisson.getScoredSortedSet(key, this.codec);
+        return sortedSet.entryRange(min, true, max, false).stream().map(ScoredEntryEx::new).collect(Collectors.toList());
+    }
+
+    /**
+     * 同上, 至多返回count个成员
+     */
+    public <V> Collection<ScoredEntryEx<V>> zrangeByScore(String key, double min, double max, int count) {
+        RScoredSortedSet<V> sortedSet = this.redisson.getScoredSortedSet(key, this.codec);
+        return sortedSet.entryRange(min, true, max, false, 0, count).stream().map(ScoredEntryEx::new).collect(Collectors.toList());
+    }
+
     public <V> double zmax(String key) {
-        RScoredSortedSet<V> sortedSet = this.redisson.getScoredSortedSet(key);
+        RScoredSortedSet<V> sortedSet = this.redisson.getScoredSortedSet(key, this.codec);
         Iterator<ScoredEntry<V>> iterator = sortedSet.entryRange(-1, -1).iterator();
         return iterator.hasNext() ? ((ScoredEntry) iterator.next()).getScore() : 0.0;
     }
 
     public <V> boolean zrem(String key, V v) {
-        return this.redisson.getScoredSortedSet(key).remove(v);
+        return this.redisson.getScoredSortedSet(key, this.codec).remove(v);
+    }
+
+    /**
+     * 异步发布消息, 不等待结果
+     */
+    public <M> void publish(String topic, M message) {
+        this.redisson.getTopic(topic, this.codec).publishAsync(message);
     }
 
     public <V> Optional<V> eval(RScript.Mode mode, String lua, List<Object> keys, Object... values) {
-        RScript script = this.redisson.getScript();
+        RScript script = this.redisson.getScript(this.codec);
         V eval = script.eval(mode, lua, RScript.ReturnType.VALUE, keys, values);
         return Objects.nonNull(eval) ? Optional.of(eval) : Optional.empty();
     }
 
+    public <V> List<V> evalList(RScript.Mode mode, String lua, List<Object> keys, Object... values) {
+        RScript script = this.redisson.getScript(this.codec);
+        List<V> eval = script.eval(mode, lua, RScript.ReturnType.MULTI, keys, values);
+        return Objects.nonNull(eval) ? eval : Collections.emptyList();
+    }
+
+    /*
+     * 以下为异步版本, 基于redisson的RFuture, 不阻塞调用线程, 结果通过CompletableFuture返回
+     */
+
+    public <V> CompletableFuture<Boolean> zaddAsync(String key, double score, V v) {
+        RScoredSortedSet<V> sortedSet = this.redisson.getScoredSortedSet(key, this.codec);
+        return sortedSet.addAsync(score, v).toCompletableFuture();
+    }
+
+    public CompletableFuture<Integer> zcardAsync(String key) {
+        return this.redisson.getScoredSortedSet(key, this.codec).sizeAsync().toCompletableFuture();
+    }
+
+    public CompletableFuture<Integer> llenAsync(String key) {
+        return this.redisson.getList(key, this.codec).sizeAsync().toCompletableFuture();
+    }
+
+    public <V> CompletableFuture<Boolean> sremAsync(String key, V v) {
+        RSet<V> set = this.redisson.getSet(key, this.codec);
+        return set.removeAsync(v).toCompletableFuture();
+    }
+
+    public CompletableFuture<Integer> scardAsync(String key) {
+        return this.redisson.getSet(key, this.codec).sizeAsync().toCompletableFuture();
+    }
+
+    public <V> CompletableFuture<Optional<V>> evalAsync(RScript.Mode mode, String lua, List<Object> keys, Object... values) {
+        RScript script = this.redisson.getScript(this.codec);
+        RFuture<V> eval = script.evalAsync(mode, lua, RScript.ReturnType.VALUE, keys, values);
+        return eval.toCompletableFuture().thenApply(Optional::ofNullable);
+    }
+
+    public <V> CompletableFuture<List<V>> evalListAsync(RScript.Mode mode, String lua, List<Object> keys, Object... values) {
+        RScript script = this.redisson.getScript(this.codec);
+        RFuture<List<V>> eval = script.evalAsync(mode, lua, RScript.ReturnType.MULTI, keys, values);
+        return eval.toCompletableFuture().thenApply(v -> Objects.nonNull(v) ? v : Collections.<V>emptyList());
+    }
+
     public <T, R> Optional<R> lock(String lockKey, Optional<T> t, Function<Optional<T>, Optional<R>> func) {
         boolean isLock = false;
         Optional<R> result = Optional.empty();
@@ -249,6 +396,11 @@ public class RedissonUtils {
             this.value = scoredEntry.getValue();
         }
 
+        public ScoredEntryEx(Double score, V value) {
+            this.score = score;
+            this.value = value;
+        }
+
         public Double getScore() {
             return this.score;
         }
@@ -0,0 +1,60 @@
+package edu.vt.ranhuo.asynccore.utils;
+
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于redis发布订阅的唤醒信号
+ * 每收到一条消息版本号加一, 调用方先记录版本号再检查redis数据, 数据为空时等待版本号变化, 避免丢失唤醒
+ */
+public class TopicSignal implements Closeable {
+    private final RTopic topic;
+    private final int listenerId;
+    private final AtomicLong version = new AtomicLong();
+    private final Object monitor = new Object();
+
+    public TopicSignal(RedissonClient redisson, String name) {
+        this.topic = redisson.getTopic(name, StringCodec.INSTANCE);
+        this.listenerId = topic.addListener(String.class, (channel, msg) -> signal());
+    }
+
+    public long version() {
+        return version.get();
+    }
+
+    public void signal() {
+        synchronized (monitor) {
+            version.incrementAndGet();
+            monitor.notifyAll();
+        }
+    }
+
+    /**
+     * 等待版本号相对于传入的version发生变化
+     *
+     * @return 版本号已变化返回true, 超时返回false
+     */
+    public boolean await(long version, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (monitor) {
+            while (this.version.get() == version) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public void close() {
+        topic.removeListener(listenerId);
+    }
+}
@@ -0,0 +1,52 @@
+package edu.vt.ranhuo.asynccore.codec;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.*;
+
+@Slf4j
+public class PayloadCodecTest {
+
+    @Test
+    public void stringCompatible() {
+        PayloadCodec<String> codec = new PayloadCodec<>(StringTaskCodec.INSTANCE, COMPRESS_THRESHOLD);
+        String value = "task:任务:1";
+        String payload = codec.encode(value);
+        // 默认编解码器写入redis的字节与之前的UTF-8字符串相同
+        Assert.assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), payload.getBytes(PAYLOAD_CHARSET));
+        Assert.assertEquals(value, codec.decode(payload));
+    }
+
+    @Test
+    public void kryoCompressed() {
+        Map<String, Object> task = new HashMap<>();
+        task.put("id", 42L);
+        task.put("body", String.join(EMPTY_STRING, Collections.nCopies(TENTH * TENTH, "payload")));
+        List<Object> values = new ArrayList<>();
+        IntStream.range(ZERO, TENTH).forEach(values::add);
+        task.put("values", values);
+
+        PayloadCodec<Map<String, Object>> plain = new PayloadCodec<>(new KryoTaskCodec<>(HashMap.class, ArrayList.class), COMPRESS_THRESHOLD);
+        PayloadCodec<Map<String, Object>> compressed = new PayloadCodec<>(new KryoTaskCodec<>(HashMap.class, ArrayList.class), TENTH * TENTH);
+        String plainPayload = plain.encode(task);
+        String compressedPayload = compressed.encode(task);
+        Assert.assertEquals(task, plain.decode(plainPayload));
+        Assert.assertEquals(task, compressed.decode(compressedPayload));
+        Assert.assertEquals(compressedPayload, compressed.encode(task)); // 编码结果稳定, 提交时可以重新编码
+        Assert.assertTrue(compressedPayload.length() < plainPayload.length());
+        log.info("kryoCompressed finished, plain: {} bytes, compressed: {} bytes", plainPayload.length(), compressedPayload.length());
+
+        Map<String, Object> small = Collections.singletonMap("id", (Object) 1L);
+        Assert.assertEquals(new HashMap<>(small), compressed.decode(compressed.encode(new HashMap<>(small))));
+    }
+}
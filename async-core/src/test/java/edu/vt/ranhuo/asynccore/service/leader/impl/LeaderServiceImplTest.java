@@ -3,10 +3,12 @@ package edu.vt.ranhuo.asynccore.service.leader.impl;
 import edu.vt.ranhuo.asynccore.config.TaskConfig;
 import edu.vt.ranhuo.asynccore.config.TaskContext;
 import edu.vt.ranhuo.asynccore.enums.QueueType;
+import edu.vt.ranhuo.asynccore.model.Task;
 import edu.vt.ranhuo.asynccore.service.leader.LeaderService;
 import junit.framework.TestCase;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.redisson.Redisson;
@@ -14,7 +16,11 @@ import org.redisson.api.RedissonClient;
 import org.redisson.config.Config;
 
 import java.net.URL;
-import java.util.Optional;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
 
 import static edu.vt.ranhuo.asynccore.enums.CommonConstants.*;
 
@@ -32,7 +38,7 @@ public class LeaderServiceImplTest  {
         final URL resource = LeaderServiceImplTest.class.getClassLoader().getResource("redisson.yml");
         final RedissonClient redissonClient = Redisson.create(Config.fromYAML(resource));
         final TaskConfig config =
-                TaskConfig.builder().prefix(prefix).redissonClient(redissonClient).heartbeatInterval(heartbeatInterval).expirationCount(expirationCount).build();
+                TaskConfig.builder().prefix(prefix).redissonClient(redissonClient).heartbeatInterval(heartbeatInterval).expirationCount(expirationCount).queueNums(SECOND).build();
         log.info(String.format("init config: %s", config));
         context = new TaskContext(config);
     }
@@ -69,16 +75,70 @@ public class LeaderServiceImplTest  {
         Thread.sleep(sleep);
     }
 
+    /**
+     * 活跃节点只从心跳索引中截止时间之后的部分读取, 心跳过期的节点由leader按score范围找出并移出索引
+     */
+    @Test
+    public void heartIndex() throws InterruptedException {
+        final String stale = SLAVE_PREFIX.concat(REDIS_SPLIT).concat("stale");
+        context.getRedissonUtils().zadd(context.heartIndex(), ZERO, stale);
+        LeaderService leaderService = new LeaderServiceImpl(context, context.slaveHashKey());
+        Thread.sleep(leaderSleep);
+        Set<String> active = leaderService.getActiveNodeInfo();
+        Assert.assertTrue(active.contains(context.slaveHashKey()));
+        Assert.assertFalse(active.contains(stale));
+        Assert.assertEquals(FIRST, context.getRedissonUtils().zcard(context.heartIndex()));
+        log.info("heartIndex finished, active: {}, leader: {}", active, leaderService.getLeaderInfo());
+        leaderService.close();
+    }
+
+    /**
+     * 每次宕机恢复都计入失败次数, 放回任务ID中记录的分片, 达到maxAttempts后隔离至死信而不是再次放回就绪队列
+     */
+    @Test
+    public void acceptSlaveQuarantine() {
+        final String id = Task.newId(SECOND);
+        final String queue = context.getQueue(SECOND);
+        LeaderServiceImpl leaderService = new LeaderServiceImpl(context, context.slaveHashKey());
+        IntStream.range(FIRST, MAX_ATTEMPTS).forEach((v) -> {
+            leaderService.acceptSlave(Collections.singletonList(id));
+            Assert.assertEquals(FIRST, context.getRedissonUtils().zcard(queue));
+            context.getRedissonUtils().zrem(queue, id); // 模拟再次被slave取出
+        });
+        leaderService.acceptSlave(Collections.singletonList(id));
+        Assert.assertEquals(ZERO, context.getRedissonUtils().zcard(queue));
+        Assert.assertEquals(FIRST, context.getRedissonUtils().zcard(context.deadIndex()));
+        log.info("acceptSlaveQuarantine finished, id: {}, cause: {}", id, context.getRedissonUtils().hget(context.deadHash(), id));
+        context.getRedissonUtils().del(queue);
+        leaderService.close();
+    }
+
+    /**
+     * 任务ID中的分片超出queueNums或无法解析时放回第一个分片, 而不是没有slave消费的队列
+     */
+    @Test
+    public void acceptSlaveOutOfRange() {
+        final List<String> ids = Arrays.asList(Task.newId(THIRD), "foreign");
+        final String queue = context.getQueue(FIRST);
+        LeaderServiceImpl leaderService = new LeaderServiceImpl(context, context.slaveHashKey());
+        leaderService.acceptSlave(ids);
+        Assert.assertEquals(SECOND, context.getRedissonUtils().zcard(queue));
+        Assert.assertFalse(context.getRedissonUtils().exists(context.getQueue(THIRD)));
+        log.info("acceptSlaveOutOfRange finished, queue: {}", queue);
+        context.getRedissonUtils().del(queue);
+        leaderService.close();
+    }
+
     private void setSlaveExecute() {
-        String value = context.addSplit(Optional.of("task_second"), "task_first");
-        context.getRedissonUtils().hset(context.executeHash(), context.slaveHashKey(), value);
-        log.info(String.format("setExecute finished, hashExecute value: %s", value));
+        context.getRedissonUtils().sadd(context.executeSet(context.slaveHashKey()), "task_second");
+        context.getRedissonUtils().sadd(context.executeSet(context.slaveHashKey()), "task_first");
+        log.info(String.format("setExecute finished, executeSet value: %s", context.getRedissonUtils().smembers(context.executeSet(context.slaveHashKey()))));
     }
 
 
     private void setMasterExecute() {
-        String value = context.addSplit(Optional.of("task_second"), "task_first");
-        context.getRedissonUtils().hset(context.executeHash(), context.masterHashKey(), value);
-        log.info(String.format("setExecute finished, hashExecute value: %s", value));
+        context.getRedissonUtils().sadd(context.executeSet(context.masterHashKey()), "task_second");
+        context.getRedissonUtils().sadd(context.executeSet(context.masterHashKey()), "task_first");
+        log.info(String.format("setExecute finished, executeSet value: %s", context.getRedissonUtils().smembers(context.executeSet(context.masterHashKey()))));
     }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package edu.vt.ranhuo.asynccore.service.rebalance.impl;
 
 import edu.vt.ranhuo.asynccore.service.leader.impl.LeaderServiceImplTest;
 import edu.vt.ranhuo.asynccore.service.rebalance.RebalanceService;
+import edu.vt.ranhuo.asynccore.service.rebalance.RebalanceStrategyFactory;
 import org.junit.Before;
 import org.junit.Test;
 import org.redisson.Redisson;
@@ -11,15 +12,22 @@ import org.redisson.config.Config;
 import java.net.URL;
 import java.util.*;
 
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.CONSISTENT_HASH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
 public class ConstantHashRebalanceImplTestService {
 
     private RebalanceService rebalanceService;
+    private RedissonClient redissonClient;
 
     Set<String> activeNodes = new HashSet<>(Arrays.asList("node1", "node2", "node3", "node4"));
     @Before
     public void setUp() throws Exception {
         final URL resource = LeaderServiceImplTest.class.getClassLoader().getResource("redisson.yml");
-        RedissonClient redissonClient = Redisson.create(Config.fromYAML(resource));
+        redissonClient = Redisson.create(Config.fromYAML(resource));
         rebalanceService = new ConstantHashRebalanceServiceImpl(redissonClient);
     }
 
@@ -40,4 +48,22 @@ public class ConstantHashRebalanceImplTestService {
         rebalanceService.handleNodeFailure("node1",new HashSet<>(Arrays.asList("node2","node3","node4")),12);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void incrementalRing() {
+        ConstantHashRebalanceServiceImpl constantHash = (ConstantHashRebalanceServiceImpl) rebalanceService;
+        Map<String, List<Integer>> previous = constantHash.computeAssignment(activeNodes, 12);
+        // 移除node1后, 其他节点原有的队列归属不变
+        Map<String, List<Integer>> assignment = constantHash.computeAssignment(new HashSet<>(Arrays.asList("node2", "node3", "node4")), 12);
+        assignment.forEach((node, queues) -> assertTrue(queues.containsAll(previous.get(node))));
+        // node1重新加入后恢复原有的分配关系
+        assertEquals(previous, constantHash.computeAssignment(activeNodes, 12));
+    }
+
+    @Test
+    public void factoryVirtualNodes() {
+        // 虚拟节点数不同的配置各自使用自己的哈希环
+        RebalanceService small = RebalanceStrategyFactory.getRebalanceStrategy(CONSISTENT_HASH, 10, redissonClient);
+        assertSame(small, RebalanceStrategyFactory.getRebalanceStrategy(CONSISTENT_HASH, 10, redissonClient));
+        assertNotSame(small, RebalanceStrategyFactory.getRebalanceStrategy(CONSISTENT_HASH, 200, redissonClient));
+    }
+}
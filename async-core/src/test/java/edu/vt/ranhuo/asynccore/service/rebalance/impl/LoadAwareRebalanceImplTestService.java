@@ -0,0 +1,128 @@
+package edu.vt.ranhuo.asynccore.service.rebalance.impl;
+
+import edu.vt.ranhuo.asynccore.config.TaskConfig;
+import edu.vt.ranhuo.asynccore.config.TaskContext;
+import edu.vt.ranhuo.asynccore.service.leader.impl.LeaderServiceImplTest;
+import edu.vt.ranhuo.asynccore.service.rebalance.RebalanceStrategyFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.redisson.Redisson;
+import org.redisson.api.RedissonClient;
+import org.redisson.config.Config;
+
+import java.net.URL;
+import java.util.*;
+
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.LOAD_AWARE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class LoadAwareRebalanceImplTestService {
+
+    private TaskContext context;
+    private LoadAwareRebalanceServiceImpl rebalanceService;
+
+    Set<String> activeNodes = new HashSet<>(Arrays.asList("node1", "node2", "node3"));
+    @Before
+    public void setUp() throws Exception {
+        final URL resource = LeaderServiceImplTest.class.getClassLoader().getResource("redisson.yml");
+        RedissonClient redissonClient = Redisson.create(Config.fromYAML(resource));
+        context = new TaskContext(TaskConfig.builder().prefix("test:loadaware").redissonClient(redissonClient)
+                .queueNums(6).rebalanceStrategy(LOAD_AWARE).build());
+        rebalanceService = new LoadAwareRebalanceServiceImpl(context);
+    }
+
+    @After
+    public void tearDown() {
+        context.getAllKey().forEach((v) -> context.getRedissonUtils().del(v));
+    }
+
+    @Test
+    public void startRebalance() {
+        rebalanceService.startRebalance(activeNodes, 6);
+        Map<String, List<Integer>> assignment = assignment();
+        System.out.println(assignment);
+        assertAssignedOnce(assignment, 6);
+        // 没有积压和速率时按队列数均分
+        assignment.values().forEach(queues -> assertEquals(2, queues.size()));
+    }
+
+    @Test
+    public void heterogeneousSlaves() {
+        Map<String, Double> rates = new TreeMap<>();
+        rates.put("node1", 40d);
+        rates.put("node2", 10d);
+        rates.put("node3", 10d);
+        long[] depths = {100, 100, 100, 100, 100, 100};
+        Map<String, List<Integer>> assignment = rebalanceService.computeAssignment(depths, rates);
+        System.out.println(assignment);
+        assertAssignedOnce(assignment, depths.length);
+        // 速率是其他节点4倍的node1负责的队列最多, 每个节点至少一个队列
+        assertEquals(4, assignment.get("node1").size());
+        assertTrue(assignment.get("node1").size() > assignment.get("node2").size());
+        assertTrue(assignment.get("node1").size() > assignment.get("node3").size());
+        assignment.values().forEach(queues -> assertTrue(!queues.isEmpty()));
+
+        Map<String, List<Integer>> uniform = new TreeMap<>();
+        uniform.put("node1", Arrays.asList(0, 1));
+        uniform.put("node2", Arrays.asList(2, 3));
+        uniform.put("node3", Arrays.asList(4, 5));
+        double before = rebalanceService.drainTime(uniform, depths, rates);
+        double after = rebalanceService.drainTime(assignment, depths, rates);
+        System.out.println(before + "s -> " + after + "s");
+        assertTrue(after < before);
+    }
+
+    @Test
+    public void refresh() {
+        rebalanceService.startRebalance(activeNodes, 6);
+        // 积压集中在一个队列时, 重新评估会把其他队列从负责该队列的节点移走
+        Map<String, Map<String, Double>> backlog = new HashMap<>();
+        for (int queue = 0; queue < 6; queue++) {
+            Map<String, Double> tasks = new HashMap<>();
+            for (int i = 0; i < (queue == 0 ? 1000 : 300); i++) {
+                tasks.put("task" + i, (double) i);
+            }
+            backlog.put(context.getAllQueue().get(queue), tasks);
+        }
+        context.getRedissonUtils().zaddBatch(backlog);
+        String owner = assignment().entrySet().stream().filter(e -> e.getValue().contains(0)).findFirst().get().getKey();
+        assertTrue(assignment().get(owner).size() > 1);
+
+        rebalanceService.refresh(activeNodes, 6);
+        Map<String, List<Integer>> assignment = assignment();
+        System.out.println(assignment);
+        assertAssignedOnce(assignment, 6);
+        String deepOwner = assignment.entrySet().stream().filter(e -> e.getValue().contains(0)).findFirst().get().getKey();
+        assertEquals(Collections.singletonList(0), assignment.get(deepOwner));
+        context.getAllQueue().forEach((v) -> context.getRedissonUtils().del(v));
+    }
+
+    @Test
+    public void factoryPerContext() {
+        // 不同prefix的leader各自读取自己topic的队列长度和完成速率, 不能拿到缓存的同一个实例
+        TaskContext other = new TaskContext(TaskConfig.builder().prefix("test:loadaware:other").redissonClient(context.getConfig().getRedissonClient())
+                .queueNums(3).rebalanceStrategy(LOAD_AWARE).build());
+        assertNotSame(RebalanceStrategyFactory.getRebalanceStrategy(context), RebalanceStrategyFactory.getRebalanceStrategy(other));
+    }
+
+    private Map<String, List<Integer>> assignment() {
+        Map<String, List<Integer>> assignment = new TreeMap<>();
+        activeNodes.forEach(node -> assignment.put(node, rebalanceService.getQueuesForWorker(node, activeNodes, 6)));
+        return assignment;
+    }
+
+    // 每个队列恰好分配给一个节点
+    private static void assertAssignedOnce(Map<String, List<Integer>> assignment, int queueNum) {
+        List<Integer> assigned = new ArrayList<>();
+        assignment.values().forEach(assigned::addAll);
+        Collections.sort(assigned);
+        List<Integer> expected = new ArrayList<>();
+        for (int queue = 0; queue < queueNum; queue++) {
+            expected.add(queue);
+        }
+        assertEquals(expected, assigned);
+    }
+}
@@ -9,11 +9,16 @@ import org.redisson.api.RedissonClient;
 import org.redisson.config.Config;
 
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import static org.junit.Assert.assertEquals;
+
 public class RoundRebalanceImplTestService {
 
     private RebalanceService rebalanceService;
@@ -41,4 +46,33 @@ public class RoundRebalanceImplTestService {
         List<Integer> queues = rebalanceService.getQueuesForWorker("node1",activeNodes,2);
         System.out.println(queues);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void incrementalRebalance() {
+        RoundRebalanceServiceImpl round = (RoundRebalanceServiceImpl) rebalanceService;
+        Map<String, List<Integer>> previous = round.computeAssignment(new HashMap<>(), activeNodes, 9);
+        System.out.println(previous);
+        // 新增节点只会从其他节点各拿走超出配额的队列, 原有节点保留其余队列
+        Set<String> scaleOut = new HashSet<>(activeNodes);
+        scaleOut.add("node4");
+        Map<String, List<Integer>> assignment = round.computeAssignment(previous, scaleOut, 9);
+        System.out.println(assignment);
+        assertEquals(2, moved(previous, assignment));
+        // 节点宕机只移动该节点原有的队列
+        Map<String, List<Integer>> failure = round.computeAssignment(assignment, activeNodes, 9);
+        System.out.println(failure);
+        assertEquals(assignment.get("node4").size(), moved(assignment, failure));
+    }
+
+    private static int moved(Map<String, List<Integer>> previous, Map<String, List<Integer>> assignment) {
+        int moved = 0;
+        for (Map.Entry<String, List<Integer>> entry : assignment.entrySet()) {
+            for (Integer queue : entry.getValue()) {
+                if (!previous.getOrDefault(entry.getKey(), new ArrayList<>()).contains(queue)) {
+                    moved++;
+                }
+            }
+        }
+        return moved;
+    }
+}
@@ -2,12 +2,18 @@ package edu.vt.ranhuo.asynccore.service.task.impl;
 
 import edu.vt.ranhuo.asynccore.config.TaskConfig;
 import edu.vt.ranhuo.asynccore.config.TaskContext;
+import edu.vt.ranhuo.asynccore.enums.KeyLayout;
+import edu.vt.ranhuo.asynccore.enums.QueueType;
+import edu.vt.ranhuo.asynccore.enums.Status;
+import edu.vt.ranhuo.asynccore.model.DeadLetter;
+import edu.vt.ranhuo.asynccore.model.Task;
 import edu.vt.ranhuo.asynccore.service.leader.impl.LeaderServiceImpl;
 import edu.vt.ranhuo.asynccore.service.leader.impl.LeaderServiceImplTest;
 import edu.vt.ranhuo.asynccore.service.task.TaskService;
 import junit.framework.TestCase;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.redisson.Redisson;
@@ -15,10 +21,17 @@ import org.redisson.api.RedissonClient;
 import org.redisson.config.Config;
 
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
-import static edu.vt.ranhuo.asynccore.enums.CommonConstants.SECOND;
-import static edu.vt.ranhuo.asynccore.enums.CommonConstants.ZERO;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.*;
 
 @Slf4j
 public class TaskServiceImplTest {
@@ -47,16 +60,220 @@ public class TaskServiceImplTest {
     @Test
     public void sendExecuteQueue() {
         IntStream.range(ZERO, SECOND).forEach((v) -> service.sendExecuteQueue(context.masterHashKey(), String.valueOf(v)));
-        log.info("sendExecuteQueue finished, executeHash: {}, hashKey: {}, value: {}", context.executeHash(),
-                context.masterHashKey(), context.getRedissonUtils().hget(context.executeHash(), context.masterHashKey()));
+        log.info("sendExecuteQueue finished, executeSet: {}, value: {}", context.executeSet(context.masterHashKey()),
+                service.getExecuteQueue(context.masterHashKey()));
     }
 
     @Test
     public void commitExecuteTask() {
         sendExecuteQueue();
         IntStream.range(ZERO, SECOND).forEach((v) -> service.commitExecuteTask(context.masterHashKey(), String.valueOf(v)));
-        log.info("commitExecuteTask finished, executeHash: {}, hashKey: {}, value: {}", context.executeHash(),
-                context.masterHashKey(), context.getRedissonUtils().hget(context.executeHash(), context.masterHashKey()));
+        log.info("commitExecuteTask finished, executeSet: {}, value: {}", context.executeSet(context.masterHashKey()),
+                service.getExecuteQueue(context.masterHashKey()));
+    }
+
+    /**
+     * 直接写入就绪队列的成员(升级前的任务)没有任务数据, 任务ID即为任务数据
+     */
+    @Test
+    public void claim() {
+        final String queue = context.getQueue(QueueType.ONE);
+        IntStream.range(ZERO, SECOND).forEach((v) -> context.getRedissonUtils().zadd(queue, v, String.valueOf(v)));
+        Assert.assertEquals(Optional.of("1"), service.claim(queue, context.slaveHashKey()).map(Task::getPayload));
+        Assert.assertEquals(Optional.of("0"), service.claim(queue, context.slaveHashKey()).map(Task::getPayload));
+        Assert.assertFalse(service.claim(queue, context.slaveHashKey()).isPresent());
+        Assert.assertEquals(SECOND, service.getExecuteQueueSum(context.slaveHashKey()));
+        log.info("claim finished, executeSet: {}, value: {}", context.executeSet(context.slaveHashKey()),
+                service.getExecuteQueue(context.slaveHashKey()));
+        clean();
+    }
+
+    @Test
+    public void claimBatch() {
+        final List<String> queues = Arrays.asList(context.getQueue(QueueType.ONE), context.getQueue(QueueType.TWO));
+        IntStream.range(ZERO, FIFTH).forEach((v) -> service.send(queues.get(v % SECOND),
+                Collections.singletonMap(new Task<>(Task.newId(v % SECOND + FIRST), "task-" + v), (double) v)));
+        Assert.assertEquals(Arrays.asList("task-4", "task-3", "task-2"), payloads(service.claim(queues, context.slaveHashKey(), THIRD)));
+        Assert.assertEquals(Arrays.asList("task-1", "task-0"), payloads(service.claim(queues, context.slaveHashKey(), THIRD)));
+        Assert.assertTrue(service.claim(queues, context.slaveHashKey(), THIRD).isEmpty());
+        Assert.assertEquals(FIFTH, service.getExecuteQueueSum(context.slaveHashKey()));
+        log.info("claimBatch finished, executeSet: {}, value: {}", context.executeSet(context.slaveHashKey()),
+                service.getExecuteQueue(context.slaveHashKey()));
+        queues.forEach((v) -> context.getRedissonUtils().del(v));
+        clean();
+    }
+
+    /**
+     * 相同的任务数据以不同ID投放不会合并, 按ID删除时同时删除任务数据, 提交后结果队列中同样只保存ID
+     */
+    @Test
+    public void sendAndDelete() {
+        final String queue = context.getQueue(QueueType.ONE);
+        Map<Task<String>, Double> tasks = new LinkedHashMap<>();
+        IntStream.range(ZERO, THIRD).forEach((v) -> tasks.put(new Task<>(Task.newId(FIRST), "same"), (double) v));
+        Assert.assertEquals(THIRD, service.send(queue, tasks));
+        List<String> ids = tasks.keySet().stream().map(Task::getId).collect(Collectors.toList());
+        Assert.assertEquals(FIRST, Task.shardOf(ids.get(ZERO)));
+        Assert.assertTrue(service.delete(queue, ids.get(ZERO)));
+        Assert.assertFalse(service.delete(queue, ids.get(ZERO)));
+        Assert.assertEquals(SECOND, service.getQueue(queue).size());
+        Assert.assertEquals(SECOND, context.getRedissonUtils().hlen(context.payloadHash(queue)));
+
+        Optional<Task<String>> claimed = service.claim(queue, context.slaveHashKey());
+        Assert.assertEquals(Optional.of(ids.get(SECOND)), claimed.map(Task::getId));
+        service.commitAll(context.slaveHashKey(), Collections.singletonMap(claimed.get().getId(), "result"));
+        Assert.assertEquals(FIRST, context.getRedissonUtils().hlen(context.payloadHash(queue)));
+        List<Task<String>> drained = service.drain(context.resultQueue(), context.masterHashKey(), THIRD);
+        Assert.assertEquals(Collections.singletonList("result"), payloads(drained));
+        service.commitExecuteTask(context.masterHashKey(), drained.get(ZERO).getId());
+        Assert.assertEquals(ZERO, context.getRedissonUtils().hlen(context.resultHash(queue)));
+        log.info("sendAndDelete finished, ids: {}, queue: {}", ids, service.getQueue(queue));
+        clean();
+    }
+
+    /**
+     * 租约过期的任务由reap放回就绪队列, 之后的续约和提交都会被忽略
+     */
+    @Test
+    public void leaseReap() throws InterruptedException {
+        final long leaseTimeout = 200;
+        final TaskConfig config = TaskConfig.builder().prefix(prefix + ":lease").redissonClient(context.getConfig().getRedissonClient())
+                .heartbeatInterval(heartbeatInterval).expirationCount(expirationCount).leaseTimeout(leaseTimeout).build();
+        final TaskContext leaseContext = new TaskContext(config);
+        final TaskService<String, String> leaseService = new TaskServiceImpl(leaseContext);
+        final String slave = leaseContext.slaveHashKey();
+        final String queue = leaseContext.getQueue(QueueType.ONE);
+        IntStream.range(ZERO, THIRD).forEach((v) -> leaseService.send(queue,
+                Collections.singletonMap(new Task<>(Task.newId(FIRST), "task-" + v), (double) v)));
+
+        List<Task<String>> claimed = leaseService.claim(Collections.singletonList(queue), slave, THIRD);
+        Assert.assertEquals(THIRD, leaseContext.getRedissonUtils().zcard(leaseContext.leaseIndex()));
+        Assert.assertTrue(leaseService.renew(slave, claimed.get(ZERO).getId()));
+        leaseService.commitAll(slave, Collections.singletonMap(claimed.get(ZERO).getId(), "result"));
+        Assert.assertEquals(SECOND, leaseContext.getRedissonUtils().zcard(leaseContext.leaseIndex()));
+
+        Thread.sleep(leaseTimeout * SECOND);
+        Assert.assertEquals(SECOND, leaseService.reap(LEASE_REAP_BATCH));
+        Assert.assertEquals(ZERO, leaseService.getExecuteQueueSum(slave));
+        Assert.assertEquals(SECOND, leaseService.getQueue(queue).size());
+        Assert.assertFalse(leaseService.renew(slave, claimed.get(FIRST).getId()));
+        leaseService.commitAll(slave, Collections.singletonMap(claimed.get(FIRST).getId(), "late"));
+        Assert.assertEquals(FIRST, leaseContext.getRedissonUtils().llen(leaseContext.resultQueue()));
+        Assert.assertEquals(SECOND, payloads(leaseService.claim(Collections.singletonList(queue), slave, THIRD)).size());
+        log.info("leaseReap finished, claimed: {}, leaseIndex: {}", claimed, leaseContext.leaseIndex());
+        leaseContext.getAllKey().forEach((v) -> leaseContext.getRedissonUtils().del(v));
+    }
+
+    /**
+     * 延时任务到期前不在就绪队列中, promote只移动已到期的任务, 并按投放时指定的score排序,
+     * 任务ID中的分片超出queueNums时移入第一个分片
+     */
+    @Test
+    public void schedulePromote() {
+        final String queue = context.getQueue(QueueType.ONE);
+        final long now = context.timestamp();
+        Map<Task<String>, Double> due = new LinkedHashMap<>();
+        IntStream.range(ZERO, THIRD).forEach((v) -> due.put(new Task<>(Task.newId(v * SECOND + FIRST), "due-" + v), (double) v));
+        Assert.assertEquals(THIRD, service.schedule(queue, due, now - FIRST));
+        Task<String> later = new Task<>(Task.newId(FIRST), "later");
+        Assert.assertEquals(FIRST, service.schedule(queue, Collections.singletonMap(later, (double) TENTH), now + MILLISECOND * TENTH));
+        Assert.assertTrue(service.getQueue(queue).isEmpty());
+
+        Assert.assertEquals(THIRD, service.promote(FIRST));
+        Assert.assertEquals(FIRST, context.getRedissonUtils().zcard(context.timerIndex()));
+        Assert.assertEquals(Arrays.asList("due-2", "due-1", "due-0"), payloads(service.claim(Collections.singletonList(queue), context.slaveHashKey(), FOURTH)));
+        Assert.assertTrue(service.delete(queue, later.getId()));
+        Assert.assertEquals(ZERO, context.getRedissonUtils().hlen(context.timerHash()));
+        Assert.assertEquals(ZERO, service.promote(TIMER_PROMOTE_BATCH));
+        log.info("schedulePromote finished, queue: {}, timerIndex: {}", queue, context.timerIndex());
+        clean();
+    }
+
+    /**
+     * 失败的任务经定时索引重新投放, 达到最大执行次数后进入死信, 重新投放后执行次数从0开始
+     */
+    @Test
+    public void failAndDeadLetter() {
+        final TaskConfig config = TaskConfig.builder().prefix(prefix + ":retry").redissonClient(context.getConfig().getRedissonClient())
+                .heartbeatInterval(heartbeatInterval).expirationCount(expirationCount).maxAttempts(SECOND).retryBackoff(ZERO).build();
+        final TaskContext retryContext = new TaskContext(config);
+        final TaskService<String, String> retryService = new TaskServiceImpl(retryContext);
+        final String slave = retryContext.slaveHashKey();
+        final String queue = retryContext.getQueue(QueueType.ONE);
+        final Task<String> task = new Task<>(Task.newId(FIRST), "retry");
+        retryService.send(queue, Collections.singletonMap(task, (double) FIRST));
+
+        Assert.assertEquals(Optional.of(task), retryService.claim(queue, slave));
+        Assert.assertEquals(Status.RETRY, retryService.fail(slave, task.getId(), "first"));
+        Assert.assertEquals(Status.NON_EXISTENT, retryService.fail(slave, task.getId(), "again"));
+        Assert.assertEquals(FIRST, retryService.promote(TIMER_PROMOTE_BATCH));
+        Assert.assertEquals(Optional.of("retry"), retryService.claim(queue, slave).map(Task::getPayload));
+        Assert.assertEquals(Status.DEAD, retryService.fail(slave, task.getId(), "second"));
+        Assert.assertEquals(ZERO, retryService.getExecuteQueueSum(slave));
+
+        List<DeadLetter<String>> letters = retryService.getDeadLetters(TENTH);
+        Assert.assertEquals(FIRST, letters.size());
+        Assert.assertEquals("retry", letters.get(ZERO).getTask().getPayload());
+        Assert.assertEquals("second", letters.get(ZERO).getCause());
+        Assert.assertEquals(SECOND, letters.get(ZERO).getAttempts());
+        Assert.assertTrue(retryService.redrive(queue, task.getId()));
+        Assert.assertEquals(ZERO, retryService.getDeadLetterSum());
+        retryService.claim(queue, slave);
+        retryService.commitAll(slave, Collections.singletonMap(task.getId(), "result"));
+        Assert.assertEquals(ZERO, retryContext.getRedissonUtils().hlen(retryContext.attemptsHash()));
+        log.info("failAndDeadLetter finished, letters: {}", letters);
+        retryContext.getAllKey().forEach((v) -> retryContext.getRedissonUtils().del(v));
+    }
+
+    private static List<String> payloads(List<Task<String>> tasks) {
+        return tasks.stream().map(Task::getPayload).collect(Collectors.toList());
+    }
+
+    /**
+     * cluster布局下分片的执行队列与结果队列以分片队列名为hash tag, 单机redis上同样可以验证
+     */
+    @Test
+    public void clusterLayout() {
+        final TaskConfig config = TaskConfig.builder().prefix(prefix + ":cluster").redissonClient(context.getConfig().getRedissonClient())
+                .heartbeatInterval(heartbeatInterval).expirationCount(expirationCount).queueNums(SECOND).keyLayout(KeyLayout.CLUSTER).build();
+        final TaskContext clusterContext = new TaskContext(config);
+        final TaskService<String, String> clusterService = new TaskServiceImpl(clusterContext);
+        final String slave = clusterContext.slaveHashKey();
+        final List<String> queues = Arrays.asList(clusterContext.getQueue(FIRST), clusterContext.getQueue(SECOND));
+        queues.forEach(queue -> {
+            String tag = queue.substring(ZERO, queue.indexOf('}') + FIRST);
+            Assert.assertTrue(clusterContext.executeSet(slave, queue).startsWith(tag));
+            Assert.assertTrue(clusterContext.resultQueue(queue).startsWith(tag));
+            Assert.assertTrue(clusterContext.payloadHash(queue).startsWith(tag));
+            Assert.assertTrue(clusterContext.resultHash(queue).startsWith(tag));
+            Assert.assertTrue(clusterContext.leaseIndex(queue).startsWith(tag));
+            Assert.assertTrue(clusterContext.timerIndex(queue).startsWith(tag));
+            Assert.assertTrue(clusterContext.timerHash(queue).startsWith(tag));
+            Assert.assertTrue(clusterContext.attemptsHash(queue).startsWith(tag));
+            Assert.assertTrue(clusterContext.deadIndex(queue).startsWith(tag));
+        });
+        IntStream.range(ZERO, FOURTH).forEach((v) -> clusterService.send(queues.get(v % SECOND),
+                Collections.singletonMap(new Task<>(Task.newId(v % SECOND + FIRST), "task-" + v), (double) v)));
+
+        List<Task<String>> claimed = clusterService.claim(queues, slave, FOURTH);
+        Assert.assertEquals(FOURTH, claimed.size());
+        Assert.assertEquals(FOURTH, clusterService.getExecuteQueueSum(slave));
+        Map<String, String> results = new HashMap<>();
+        claimed.forEach(v -> results.put(v.getId(), "result-" + v.getPayload()));
+        // 本地没有分片记录的实例提交时在每个分片上各执行一次, 结果只写入任务所属分片
+        new TaskServiceImpl(clusterContext).commitAll(slave, results);
+        Assert.assertEquals(ZERO, clusterService.getExecuteQueueSum(slave));
+        Assert.assertEquals(SECOND, clusterContext.getRedissonUtils().llen(clusterContext.resultQueue(queues.get(ZERO))));
+        Assert.assertEquals(SECOND, clusterContext.getRedissonUtils().llen(clusterContext.resultQueue(queues.get(FIRST))));
+
+        String master = clusterContext.masterHashKey();
+        List<Task<String>> drained = clusterService.drain(clusterContext.resultQueues(), master, FIFTH);
+        Assert.assertEquals(FOURTH, drained.size());
+        Assert.assertTrue(drained.stream().allMatch(v -> v.getPayload().startsWith("result-task-")));
+        drained.forEach(v -> clusterService.commitExecuteTask(master, v.getId()));
+        Assert.assertEquals(ZERO, clusterService.getExecuteQueueSum(master));
+        log.info("clusterLayout finished, queues: {}, resultQueues: {}, drained: {}", queues, clusterContext.resultQueues(), drained);
+        clusterContext.getAllKey().forEach((v) -> clusterContext.getRedissonUtils().del(v));
     }
 
     @Test
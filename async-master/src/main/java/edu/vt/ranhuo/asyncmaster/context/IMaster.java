@@ -2,65 +2,135 @@ package edu.vt.ranhuo.asyncmaster.context;
 
 import edu.vt.ranhuo.asynccore.enums.QueueType;
 import edu.vt.ranhuo.asynccore.enums.Status;
+import edu.vt.ranhuo.asynccore.model.DeadLetter;
+import edu.vt.ranhuo.asynccore.model.Task;
 import edu.vt.ranhuo.asynccore.utils.RedissonUtils;
 
 import java.io.Closeable;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 public interface IMaster<T> extends Closeable {
     /**
      * 将任务循环投放至全部队列中
+     *
+     * @return 任务ID
+     */
+    String send(double score, T value);
+
+
+    /**
+     * 将任务存放至队列中, 每次投放都生成新的任务ID, 相同的任务数据可以重复投放
+     *
+     * @return 任务ID, 用于删除任务以及与consume获取的结果对应
+     */
+    String send(QueueType queue, double score, T value);
+
+    /**
+     * 将任务存放至指定分片, 分片编号从1开始, 分片数超过9时使用, 其余同上
+     */
+    String send(int shard, double score, T value);
+
+    /**
+     * 批量将任务循环投放至全部队列中, 按目标队列分组后每个队列一次lua脚本调用, 每SEND_BATCH_SIZE个任务一次网络往返
+     *
+     * @param values 任务 -> score
+     * @return 任务 -> 任务ID
+     */
+    Map<T, String> sendAll(Map<T, Double> values);
+
+    /**
+     * 延时投放, 任务先写入定时索引, 到达deliverAt后由leader移入循环选择的队列, 在此之前slave无法获取
+     * 投放精度取决于config中的timerInterval, deliverAt不晚于当前时间时直接投放
+     *
+     * @param deliverAt 投放时间, 毫秒时间戳
+     * @return 任务ID, 到期前同样可以通过delete(id)删除
      */
-    void send(double score, T value);
+    String sendAt(long deliverAt, double score, T value);
 
+    /**
+     * 延时投放至指定队列, 其余同上
+     */
+    String sendAt(QueueType queue, long deliverAt, double score, T value);
 
     /**
-     * 将任务存放至队列中
-     * 注意: 由于底层使用的是zset, 故存入的任务字符串要保持唯一
+     * 延时投放至指定分片, 分片编号从1开始, 其余同上
      */
-    void send(QueueType queue, double score, T value);
+    String sendAt(int shard, long deliverAt, double score, T value);
+
+    /**
+     * 在delay之后投放, 等价于sendAt(当前时间 + delay, score, value)
+     */
+    String sendAfter(long delay, TimeUnit unit, double score, T value);
+
+    /**
+     * 批量延时投放, 全部任务的投放时间相同, 按目标队列分组后每个队列一次lua脚本调用, 其余同sendAll
+     *
+     * @param values 任务 -> 进入就绪队列后的score
+     * @param deliverAt 投放时间, 毫秒时间戳
+     * @return 任务 -> 任务ID
+     */
+    Map<T, String> sendAllAt(Map<T, Double> values, long deliverAt);
 
     /**
      * 消费resultQueue中数据, 此函数并不控制消费速度, 应由用户业务控制消费速度, 若列表无数据则返回空Optional
-     * 注意: 此接口实现要兼容分布式服务, 需要分布式锁
+     * 注意: 此接口实现要兼容分布式服务, 通过lua脚本原子地取出结果并记录至执行队列, 多个master可并发消费
+     * 返回的Task中ID为投放时的任务ID, payload为slave提交的任务结果
+     */
+    Optional<Task<T>> consume();
+
+    /**
+     * 批量消费resultQueue中数据, 按先进先出顺序一次取出至多maxTasks个结果并记录至执行队列, 一次网络往返
+     * 若列表无数据则返回空列表, 其余同consume()
+     *
+     * @param maxTasks 最大结果数
+     * @return 结果列表
      */
-    Optional<T> consume();
+    List<Task<T>> consume(int maxTasks);
 
     /**
-     * 在指定队列中查找并删除任务, 此函数只会删除等待队列中的任务, 若slave节点已经获取到任务则无法删除, 并且在consume函数中依旧可以获取到删除任务的返回结果
+     * 在指定队列中按任务ID删除任务及其任务数据, O(log n), 此函数只会删除等待队列中的任务, 若slave节点已经获取到任务则无法删除, 并且在consume函数中依旧可以获取到删除任务的返回结果
      * 建议用户在业务层面控制, 例如: 将删除的任务在数据库设置为failed状态, 当consume获取删除任务后判断数据库任务状态如果为failed则无需处理结果;
      */
-    Status delete(QueueType queue, T value);
+    Status delete(QueueType queue, String id);
 
     /**
-     * 在所有待执行队列中查找并删除此任务, 其余同上
+     * 按任务ID删除任务, 先在ID记录的分片中删除, 找不到时再依次尝试全部分片, 其余同上
      *
-     * @param value 任务数据
+     * @param id 任务ID
      * @return 结果状态
      */
-    Status delete(T value);
+    Status delete(String id);
 
     /**
-     * 获取指定队列列表
+     * 获取指定分片的任务列表, 分片编号从1开始
+     *
+     * @param shard
+     * @return
+     */
+    Collection<RedissonUtils.ScoredEntryEx<Task<T>>> getQueue(int shard);
+
+    /**
+     * 获取指定队列列表, 同getQueue(queue.getShard())
      *
      * @param queue
      * @return
      */
-    Collection<RedissonUtils.ScoredEntryEx<T>> getQueue(QueueType queue);
+    Collection<RedissonUtils.ScoredEntryEx<Task<T>>> getQueue(QueueType queue);
 
     /**
-     * 获取所有队列列表
+     * 获取所有分片的任务列表, key为分片编号, 包含growQueues扩容后的全部分片
      *
      * @return
      */
-    Map<QueueType, Collection<RedissonUtils.ScoredEntryEx<T>>> getAllQueue();
+    Map<Integer, Collection<RedissonUtils.ScoredEntryEx<Task<T>>>> getAllQueue();
 
     /**
      * 获取执行队列集合
      *
-     * @return
+     * @return 执行中的任务ID
      */
-    Optional<List<T>> getExecuteQueue();
+    Optional<List<String>> getExecuteQueue();
 
     /**
      * 获取执行队列任务数
@@ -69,6 +139,44 @@ public interface IMaster<T> extends Closeable {
      */
     int getExecuteQueueSum();
 
+    /**
+     * 获取尚未到期的延时任务数
+     *
+     * @return
+     */
+    int getScheduledSum();
+
+    /**
+     * 按进入死信的时间从早到晚获取至多maxSize个死信任务, 即slave.fail后达到最大执行次数的任务, 包含任务数据、失败原因和执行次数
+     *
+     * @param maxSize 最大任务数
+     * @return 死信任务
+     */
+    List<DeadLetter<T>> getDeadLetters(int maxSize);
+
+    /**
+     * 获取死信任务数
+     *
+     * @return
+     */
+    int getDeadLetterSum();
+
+    /**
+     * 将死信任务重新投放至所属就绪队列的最高优先级, 执行次数从0开始计算
+     *
+     * @param id 任务ID
+     * @return 结果状态
+     */
+    Status redrive(String id);
+
+    /**
+     * 删除死信任务及其任务数据
+     *
+     * @param id 任务ID
+     * @return 结果状态
+     */
+    Status deleteDeadLetter(String id);
+
     /**
      * 获取结果队列任务数
      *
@@ -77,32 +185,58 @@ public interface IMaster<T> extends Closeable {
     int getResultQueueSum();
 
     /**
-     * 获取指定队列的最高优先级
+     * 获取指定分片的最高优先级, 分片编号从1开始
+     *
+     * @return
+     */
+    double getQueueMax(int shard);
+
+    /**
+     * 获取指定队列的最高优先级, 同getQueueMax(queue.getShard())
      *
      * @return
      */
     double getQueueMax(QueueType queue);
 
     /**
-     * 获取指定任务队列任务数量
+     * 获取指定分片的任务数量, 分片编号从1开始
+     *
+     * @return
+     */
+    int getQueueSize(int shard);
+
+    /**
+     * 获取指定任务队列任务数量, 同getQueueSize(queue.getShard())
      *
      * @return
      */
     int getQueueSize(QueueType queue);
 
     /**
-     * 获取所有任务队列任务数量
+     * 获取所有分片的任务数量, key为分片编号, 包含growQueues扩容后的全部分片
      *
      * @return
      */
-    Map<QueueType, Integer> getQueueSize();
+    Map<Integer, Integer> getQueueSize();
 
     /**
-     * 结束result任务, 此操作将删除Master执行副本中的元数据, 确保业务层面处理成功后调动此函数
+     * 获取所有分片的任务数量, 按分片编号从1开始排列
      *
      * @return
      */
-    void commit(T resultValue);
+    List<Integer> getShardSize();
+
+    /**
+     * 运行中将分片数扩容至queueNums, 只增不减, 扩容后立即重新分配, 所有master和slave在下一次心跳或收到rebalance通知后生效
+     */
+    void growQueues(int queueNums);
+
+    /**
+     * 结束result任务, 此操作将删除Master执行副本中的任务ID及其任务结果, 确保业务层面处理成功后调动此函数
+     *
+     * @param result consume获取的结果
+     */
+    void commit(Task<T> result);
 
     /**
      * 获取当前节点信息
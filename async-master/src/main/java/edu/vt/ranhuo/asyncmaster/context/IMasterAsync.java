@@ -0,0 +1,77 @@
+package edu.vt.ranhuo.asyncmaster.context;
+
+import edu.vt.ranhuo.asynccore.enums.QueueType;
+import edu.vt.ranhuo.asynccore.model.Task;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * IMaster的异步版本, 所有操作都不阻塞调用线程, 结果通过CompletableFuture返回
+ * 少量线程即可同时驱动大量并发操作, redisson会将同一连接上的并发命令自然地合并发送
+ */
+public interface IMasterAsync<T> {
+    /**
+     * 将任务循环投放至全部队列中
+     *
+     * @return 任务ID
+     */
+    CompletableFuture<String> sendAsync(double score, T value);
+
+    /**
+     * 将任务存放至指定队列中, 同send
+     *
+     * @return 任务ID
+     */
+    CompletableFuture<String> sendAsync(QueueType queue, double score, T value);
+
+    /**
+     * 异步将任务存放至指定分片, 分片编号从1开始
+     */
+    CompletableFuture<String> sendAsync(int shard, double score, T value);
+
+    /**
+     * 异步延时投放至指定分片, 同sendAt
+     *
+     * @return 任务ID
+     */
+    CompletableFuture<String> sendAtAsync(int shard, long deliverAt, double score, T value);
+
+    /**
+     * 消费resultQueue中数据, 若列表无数据则返回空Optional
+     */
+    CompletableFuture<Optional<Task<T>>> consumeAsync();
+
+    /**
+     * 批量消费resultQueue中数据, 若列表无数据则返回空列表
+     *
+     * @param maxTasks 最大结果数
+     */
+    CompletableFuture<List<Task<T>>> consumeAsync(int maxTasks);
+
+    /**
+     * 结束result任务, 删除Master执行副本中的任务ID及其任务结果
+     */
+    CompletableFuture<Void> commitAsync(Task<T> result);
+
+    /**
+     * 获取执行队列任务数
+     */
+    CompletableFuture<Integer> getExecuteQueueSumAsync();
+
+    /**
+     * 获取结果队列任务数
+     */
+    CompletableFuture<Integer> getResultQueueSumAsync();
+
+    /**
+     * 获取指定任务队列任务数量
+     */
+    CompletableFuture<Integer> getQueueSizeAsync(QueueType queue);
+
+    /**
+     * 异步获取指定分片的任务数量, 分片编号从1开始
+     */
+    CompletableFuture<Integer> getQueueSizeAsync(int shard);
+}
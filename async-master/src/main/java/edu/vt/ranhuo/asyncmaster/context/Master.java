@@ -1,9 +1,12 @@
 package edu.vt.ranhuo.asyncmaster.context;
 
+import edu.vt.ranhuo.asynccore.codec.PayloadCodec;
 import edu.vt.ranhuo.asynccore.config.TaskConfig;
 import edu.vt.ranhuo.asynccore.config.TaskContext;
 import edu.vt.ranhuo.asynccore.enums.QueueType;
 import edu.vt.ranhuo.asynccore.enums.Status;
+import edu.vt.ranhuo.asynccore.model.DeadLetter;
+import edu.vt.ranhuo.asynccore.model.Task;
 import edu.vt.ranhuo.asynccore.service.leader.LeaderService;
 import edu.vt.ranhuo.asynccore.service.leader.impl.LeaderServiceImpl;
 import edu.vt.ranhuo.asynccore.service.task.TaskService;
@@ -13,62 +16,167 @@ import edu.vt.ranhuo.asynccore.utils.RedissonUtils;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.stream.Collectors;
 
 import static edu.vt.ranhuo.asynccore.enums.CommonConstants.*;
 
+/**
+ * 任务类型T由config中的codec决定, 默认为String; 任务经PayloadCodec编码后写入redis, 读取时解码
+ * 投放时为每个任务生成ID, 队列中只保存任务ID, 任务数据保存在payload hash中, 删除和提交都按ID进行
+ */
 @Slf4j
-public class Master implements IMaster<String> {
+public class Master<T> implements IMaster<T>, IMasterAsync<T> {
     private final TaskContext context;
     private final LeaderService leaderService;
     private final TaskService<String, String> service;
+    private final PayloadCodec<T> codec;
 
     private QueueSelector queueSelector;
 
     public Master(TaskConfig config) {
         this.context = new TaskContext(config);
         this.service = new TaskServiceImpl(context);
+        this.codec = PayloadCodec.of(config);
         this.leaderService = new LeaderServiceImpl(context, context.masterHashKey());
-        this.queueSelector = new QueueSelector(config.getQueueNums());
+        this.queueSelector = new QueueSelector(context::getQueueNums);
     }
 
     @Override
-    public void send(double score, String value) {
-        QueueType queue = QueueSelector.mapIntToQueueType(queueSelector.getNextQueue());
-        context.getRedissonUtils().zadd(context.getQueue(queue), score, value);
-        log.info("master[{}] send finished, queue: {}, score: {}, value: {}", context.masterHashKey(), queue, score, value);
+    public String send(double score, T value) {
+        return send(queueSelector.getNextQueue(), score, value);
     }
 
     @Override
-    public void send(QueueType queue, double score, String value) {
-        context.getRedissonUtils().zadd(context.getQueue(queue), score, value);
-        log.info("master[{}] send finished, queue: {}, score: {}, value: {}", context.masterHashKey(), queue, score, value);
+    public String send(QueueType queue, double score, T value) {
+        return send(queue.getShard(), score, value);
     }
-    //如果成功获取到锁，它会尝试从resultQueue队列中弹出一个元素。这个元素是一个Optional<String>类型，可能包含一个字符串，也可能为空。
-    //如果成功弹出一个元素（即Optional<String>不为空），它会将这个元素发送到执行队列，并从resultQueue队列中移除这个元素。
-    //多个依赖相同config创建的master实例抢占同一个锁，redisson的lock方法无论是否上锁成功都会解锁
+
+    @Override
+    public String send(int shard, double score, T value) {
+        String queue = context.getQueue(shard);
+        Task<String> task = new Task<>(Task.newId(shard), codec.encode(value));
+        service.send(queue, Collections.singletonMap(task, score));
+        context.getRedissonUtils().publish(context.readyTopic(), queue);
+        log.info("master[{}] send finished, queue: {}, score: {}, id: {}, value: {}", context.masterHashKey(), queue, score, task.getId(), value);
+        return task.getId();
+    }
+
+    @Override
+    public Map<T, String> sendAll(Map<T, Double> values) {
+        Map<T, String> ids = sendAll(values, service::sendAsync, true);
+        log.info("master[{}] sendAll finished, size: {}", context.masterHashKey(), ids.size());
+        return ids;
+    }
+
     @Override
-    public Optional<String> consume() {
-        return context.getRedissonUtils().lock(context.masterConsumerLock(), Optional.empty(), (t) -> {
-            Optional<String> rValue = context.getRedissonUtils().rlpop(context.resultQueue());
-            rValue.ifPresent(v -> {
-                service.sendExecuteQueue(context.masterHashKey(), rValue.get());
-                context.getRedissonUtils().lpop(context.resultQueue());
-            });
-            log.info("master[{}] consume finished, queue: {}, value: {}", context.masterHashKey(), context.resultQueue(), rValue);
-            return rValue;
-        });
+    public String sendAt(long deliverAt, double score, T value) {
+        return sendAt(queueSelector.getNextQueue(), deliverAt, score, value);
+    }
+
+    @Override
+    public String sendAt(QueueType queue, long deliverAt, double score, T value) {
+        return sendAt(queue.getShard(), deliverAt, score, value);
+    }
+
+    @Override
+    public String sendAt(int shard, long deliverAt, double score, T value) {
+        if (deliverAt <= context.timestamp()) {
+            return send(shard, score, value);
+        }
+        String queue = context.getQueue(shard);
+        Task<String> task = new Task<>(Task.newId(shard), codec.encode(value));
+        service.schedule(queue, Collections.singletonMap(task, score), deliverAt);
+        log.info("master[{}] sendAt finished, queue: {}, deliverAt: {}, score: {}, id: {}, value: {}", context.masterHashKey(), queue,
+                deliverAt, score, task.getId(), value);
+        return task.getId();
     }
 
     @Override
-    public Status delete(QueueType queue, String value) {
-        return context.getRedissonUtils().zrem(context.getQueue(queue), value) == TRUE
-                ? Status.SUCCESS : Status.NON_EXISTENT;
+    public String sendAfter(long delay, TimeUnit unit, double score, T value) {
+        return sendAt(context.timestamp() + unit.toMillis(delay), score, value);
     }
 
     @Override
-    public Status delete(String value) {
-        for (QueueType queueType : context.getAllQueueType()) {
-            if (delete(queueType, value) == Status.SUCCESS) {
+    public Map<T, String> sendAllAt(Map<T, Double> values, long deliverAt) {
+        if (deliverAt <= context.timestamp()) {
+            return sendAll(values);
+        }
+        Map<T, String> ids = sendAll(values, (queue, tasks) -> service.scheduleAsync(queue, tasks, deliverAt), false);
+        log.info("master[{}] sendAllAt finished, deliverAt: {}, size: {}", context.masterHashKey(), deliverAt, ids.size());
+        return ids;
+    }
+
+    // 循环选择队列并按队列分组, 每SEND_BATCH_SIZE个任务由sender发出一批, ready为true时发布唤醒消息
+    private Map<T, String> sendAll(Map<T, Double> values, BiFunction<String, Map<Task<String>, Double>, CompletableFuture<Integer>> sender,
+                                   boolean ready) {
+        Map<T, String> ids = new LinkedHashMap<>();
+        Map<String, Map<Task<String>, Double>> batch = new HashMap<>();
+        int batchSize = ZERO;
+        for (Map.Entry<T, Double> entry : values.entrySet()) {
+            int shard = queueSelector.getNextQueue();
+            Task<String> task = new Task<>(Task.newId(shard), codec.encode(entry.getKey()));
+            ids.put(entry.getKey(), task.getId());
+            batch.computeIfAbsent(context.getQueue(shard), k -> new LinkedHashMap<>()).put(task, entry.getValue());
+            if (++batchSize == SEND_BATCH_SIZE) {
+                sendBatch(batch, sender, ready);
+                batch.clear();
+                batchSize = ZERO;
+            }
+        }
+        if (batchSize > ZERO) {
+            sendBatch(batch, sender, ready);
+        }
+        return ids;
+    }
+
+    // 每个队列一次lua脚本调用, 异步发出后统一等待, 一批任务只需一次网络往返
+    private void sendBatch(Map<String, Map<Task<String>, Double>> batch,
+                           BiFunction<String, Map<Task<String>, Double>, CompletableFuture<Integer>> sender, boolean ready) {
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        batch.forEach((queue, tasks) -> futures.add(sender.apply(queue, tasks)));
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        if (ready) {
+            context.getRedissonUtils().publish(context.readyTopic(), batch.keySet().toString());
+        }
+    }
+
+    //弹出结果与写入执行队列由同一个lua脚本完成, 结果不会在两步之间丢失, 多个依赖相同config创建的master实例无需抢占锁即可并发消费
+    @Override
+    public Optional<Task<T>> consume() {
+        Optional<Task<T>> rValue = consume(FIRST).stream().findFirst();
+        log.info("master[{}] consume finished, queue: {}, value: {}", context.masterHashKey(), context.resultQueues(), rValue);
+        return rValue;
+    }
+
+    @Override
+    public List<Task<T>> consume(int maxTasks) {
+        List<Task<T>> values = codec.decodeTasks(service.drain(context.resultQueues(), context.masterHashKey(), maxTasks));
+        log.debug("master[{}] consume finished, queue: {}, maxTasks: {}, values: {}", context.masterHashKey(), context.resultQueues(), maxTasks, values);
+        return values;
+    }
+
+    @Override
+    public Status delete(QueueType queue, String id) {
+        return service.delete(context.getQueue(queue), id) ? Status.SUCCESS : Status.NON_EXISTENT;
+    }
+
+    @Override
+    public Status delete(String id) {
+        return byId(id, service::delete);
+    }
+
+    //newId生成的ID以分片编号开头, 先在该分片中处理, 找不到时(如升级前的任务)再依次尝试全部分片
+    private Status byId(String id, BiPredicate<String, String> action) {
+        int shard = Task.shardOf(id);
+        if (shard >= FIRST && action.test(context.getQueue(shard), id)) {
+            return Status.SUCCESS;
+        }
+        for (String queue : context.getAllQueue()) {
+            if (action.test(queue, id)) {
                 return Status.SUCCESS;
             }
         }
@@ -76,22 +184,30 @@ public class Master implements IMaster<String> {
     }
 
     @Override
-    public Collection<RedissonUtils.ScoredEntryEx<String>> getQueue(QueueType queue) {
-        return context.getRedissonUtils().zrangebyscore(context.getQueue(queue), ZERO, END_INDEX);
+    public Collection<RedissonUtils.ScoredEntryEx<Task<T>>> getQueue(int shard) {
+        return service.getQueue(context.getQueue(shard)).stream()
+                .map(entry -> new RedissonUtils.ScoredEntryEx<>(entry.getScore(), codec.decode(entry.getValue())))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Collection<RedissonUtils.ScoredEntryEx<Task<T>>> getQueue(QueueType queue) {
+        return getQueue(queue.getShard());
     }
 
     @Override
-    public Map<QueueType, Collection<RedissonUtils.ScoredEntryEx<String>>> getAllQueue() {
-        return new HashMap<QueueType, Collection<RedissonUtils.ScoredEntryEx<String>>>() {{
-            context.getAllQueueType().forEach(queue -> put(queue,
-                    context.getRedissonUtils().zrangebyscore(context.getQueue(queue), ZERO, END_INDEX)));
-        }};
+    public Map<Integer, Collection<RedissonUtils.ScoredEntryEx<Task<T>>>> getAllQueue() {
+        Map<Integer, Collection<RedissonUtils.ScoredEntryEx<Task<T>>>> queues = new LinkedHashMap<>();
+        for (int shard = FIRST; shard <= context.getQueueNums(); shard++) {
+            queues.put(shard, getQueue(shard));
+        }
+        return queues;
     }
 
     @Override
     public Optional<List<String>> getExecuteQueue() {
-        Optional<String> value = context.getRedissonUtils().hget(context.executeHash(), context.masterHashKey());
-        return value.map(context::deleteSplit);
+        Set<String> value = service.getExecuteQueue(context.masterHashKey());
+        return value.isEmpty() ? Optional.empty() : Optional.of(new ArrayList<>(value));
     }
 
     @Override
@@ -99,33 +215,158 @@ public class Master implements IMaster<String> {
         return service.getExecuteQueueSum(context.masterHashKey());
     }
 
+    @Override
+    public int getScheduledSum() {
+        return context.timerIndexes().stream().mapToInt(context.getRedissonUtils()::zcard).sum();
+    }
+
+    @Override
+    public List<DeadLetter<T>> getDeadLetters(int maxSize) {
+        return service.getDeadLetters(maxSize).stream().map(letter -> letter.withTask(codec.decode(letter.getTask())))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public int getDeadLetterSum() {
+        return service.getDeadLetterSum();
+    }
+
+    @Override
+    public Status redrive(String id) {
+        Status status = byId(id, service::redrive);
+        if (status == Status.SUCCESS) {
+            context.getRedissonUtils().publish(context.readyTopic(), id);
+        }
+        log.info("master[{}] redrive finished, id: {}, status: {}", context.masterHashKey(), id, status);
+        return status;
+    }
+
+    @Override
+    public Status deleteDeadLetter(String id) {
+        return byId(id, service::deleteDeadLetter);
+    }
+
     @Override
     public int getResultQueueSum() {
-        return context.getRedissonUtils().llen(context.resultQueue());
+        return context.resultQueues().stream().mapToInt(context.getRedissonUtils()::llen).sum();
+    }
+
+    @Override
+    public double getQueueMax(int shard) {
+        return context.getRedissonUtils().zmax(context.getQueue(shard));
     }
 
     @Override
     public double getQueueMax(QueueType queue) {
-        return context.getRedissonUtils().zmax(context.getQueue(queue));
+        return getQueueMax(queue.getShard());
+    }
+
+    @Override
+    public int getQueueSize(int shard) {
+        return context.getRedissonUtils().zcard(context.getQueue(shard));
     }
 
     @Override
     public int getQueueSize(QueueType queue) {
-        return context.getRedissonUtils().zcard(context.getQueue(queue));
+        return getQueueSize(queue.getShard());
+    }
+
+    //zcardBatch一次网络往返读取全部分片, 按分片编号从1开始排列
+    @Override
+    public Map<Integer, Integer> getQueueSize() {
+        List<Integer> sizes = getShardSize();
+        Map<Integer, Integer> queueSize = new LinkedHashMap<>();
+        for (int i = ZERO; i < sizes.size(); i++) {
+            queueSize.put(i + FIRST, sizes.get(i));
+        }
+        return queueSize;
+    }
+
+    @Override
+    public List<Integer> getShardSize() {
+        return new ArrayList<>(context.getRedissonUtils().zcardBatch(context.getAllQueue()).values());
+    }
+
+    @Override
+    public void growQueues(int queueNums) {
+        leaderService.growQueues(queueNums);
+    }
+
+    @Override
+    public void commit(Task<T> result) {
+        service.commitExecuteTask(context.masterHashKey(), result.getId());
+        log.info("master[{}] commit finished, id: {}", context.masterHashKey(), result.getId());
+    }
+
+    @Override
+    public CompletableFuture<String> sendAsync(double score, T value) {
+        return sendAsync(queueSelector.getNextQueue(), score, value);
+    }
+
+    @Override
+    public CompletableFuture<String> sendAsync(QueueType queue, double score, T value) {
+        return sendAsync(queue.getShard(), score, value);
+    }
+
+    @Override
+    public CompletableFuture<String> sendAsync(int shard, double score, T value) {
+        String queue = context.getQueue(shard);
+        Task<String> task = new Task<>(Task.newId(shard), codec.encode(value));
+        return service.sendAsync(queue, Collections.singletonMap(task, score))
+                .whenComplete((added, e) -> {
+                    if (e == null) {
+                        context.getRedissonUtils().publish(context.readyTopic(), queue);
+                    }
+                })
+                .thenApply(added -> task.getId());
+    }
+
+    @Override
+    public CompletableFuture<String> sendAtAsync(int shard, long deliverAt, double score, T value) {
+        if (deliverAt <= context.timestamp()) {
+            return sendAsync(shard, score, value);
+        }
+        Task<String> task = new Task<>(Task.newId(shard), codec.encode(value));
+        return service.scheduleAsync(context.getQueue(shard), Collections.singletonMap(task, score), deliverAt).thenApply(added -> task.getId());
+    }
+
+    @Override
+    public CompletableFuture<Optional<Task<T>>> consumeAsync() {
+        return consumeAsync(FIRST).thenApply(values -> values.stream().findFirst());
+    }
+
+    @Override
+    public CompletableFuture<List<Task<T>>> consumeAsync(int maxTasks) {
+        return service.drainAsync(context.resultQueues(), context.masterHashKey(), maxTasks).thenApply(codec::decodeTasks);
+    }
+
+    @Override
+    public CompletableFuture<Void> commitAsync(Task<T> result) {
+        return service.commitExecuteTaskAsync(context.masterHashKey(), result.getId()).thenApply(v -> null);
+    }
+
+    @Override
+    public CompletableFuture<Integer> getExecuteQueueSumAsync() {
+        return service.getExecuteQueueSumAsync(context.masterHashKey());
+    }
+
+    @Override
+    public CompletableFuture<Integer> getResultQueueSumAsync() {
+        CompletableFuture<Integer> sum = CompletableFuture.completedFuture(ZERO);
+        for (String resultQueue : context.resultQueues()) {
+            sum = sum.thenCombine(context.getRedissonUtils().llenAsync(resultQueue), Integer::sum);
+        }
+        return sum;
     }
 
     @Override
-    public Map<QueueType, Integer> getQueueSize() {
-        return new HashMap<QueueType, Integer>() {{
-            context.getAllQueueType().forEach(queue -> put(queue, getQueueSize(queue)));
-        }};
+    public CompletableFuture<Integer> getQueueSizeAsync(QueueType queue) {
+        return getQueueSizeAsync(queue.getShard());
     }
 
     @Override
-    public void commit(String resultValue) {
-        service.commitExecuteTask(context.masterHashKey(), resultValue);
-        log.info("master[{}] commit finished, executeHash: {}, resultValue: {}", context.masterHashKey(),
-                context.executeHash(), resultValue);
+    public CompletableFuture<Integer> getQueueSizeAsync(int shard) {
+        return context.getRedissonUtils().zcardAsync(context.getQueue(shard));
     }
 
     @Override
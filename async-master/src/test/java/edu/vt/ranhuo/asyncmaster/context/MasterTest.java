@@ -1,14 +1,28 @@
 package edu.vt.ranhuo.asyncmaster.context;
 
 import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
 
+import edu.vt.ranhuo.asynccore.codec.KryoTaskCodec;
 import edu.vt.ranhuo.asynccore.config.TaskConfig;
 import edu.vt.ranhuo.asynccore.config.TaskContext;
 import edu.vt.ranhuo.asynccore.enums.QueueType;
 import edu.vt.ranhuo.asynccore.enums.CommonConstants;
+import edu.vt.ranhuo.asynccore.enums.Status;
+import edu.vt.ranhuo.asynccore.model.Task;
+import edu.vt.ranhuo.asynccore.utils.RedissonUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.redisson.Redisson;
@@ -23,7 +37,7 @@ public class MasterTest {
     private final String prefix = "test:master";
     private final long heartbeatInterval = 10 * 1000;
     private final int expirationCount = 3;
-    private IMaster<String> master;
+    private Master<String> master;
     private TaskContext context;
 
     @Before
@@ -34,7 +48,7 @@ public class MasterTest {
                 .heartbeatInterval(heartbeatInterval).expirationCount(expirationCount).build();
         log.info(String.format("init config: %s", config));
         context = new TaskContext(config);
-        master = new Master(config);
+        master = new Master<>(config);
     }
 
     @After
@@ -78,16 +92,117 @@ public class MasterTest {
         log.info("send finished");
     }
 
+    @Test
+    public void sendAll() {
+        Map<String, Double> values = new LinkedHashMap<>();
+        IntStream.range(ZERO, TENTH).forEach(weight -> values.put("sendAll".concat(String.valueOf(weight)), (double) weight));
+        log.info("sendAll finished, result: {}", master.sendAll(values));
+        log.info("sendAll finished, repeat: {}", master.sendAll(values));
+        getQueueSize();
+    }
+
     @Test
     public void consume() {
         IntStream.range(ZERO, THIRD).forEach((v) -> log.info("consume: {}", master.consume())); // THIRD多消费一次
-        log.info("consume finished, executeHash: {}", context.getRedissonUtils().hgetall(context.executeHash()));
+        log.info("consume finished, executeSet: {}", context.getRedissonUtils().smembers(context.executeSet(master.getNodeInfo())));
+    }
+
+    @Test
+    public void consumeBatch() {
+        setResultQueue();
+        log.info("consumeBatch: {}", master.consume(SEVENTH)); // 超出结果数时只返回已有结果
+        log.info("consumeBatch finished, executeSet: {}, resultQueue: {}", context.getRedissonUtils().smembers(context.executeSet(master.getNodeInfo())),
+                master.getResultQueueSum());
+    }
+
+    @Test
+    public void sendAsync() {
+        IMasterAsync<String> masterAsync = master;
+        CompletableFuture<?>[] futures = IntStream.range(ZERO, TENTH).mapToObj(weight ->
+                masterAsync.sendAsync(weight, "sendAsync".concat(String.valueOf(weight)))).toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(futures).join();
+        log.info("sendAsync finished, queueSize: {}", masterAsync.getQueueSizeAsync(QueueType.ONE).join());
+    }
+
+    @Test
+    public void growQueues() {
+        master.growQueues(TENTH + FIRST + FIRST); // 超过QueueType的9个分片
+        IntStream.range(ZERO, TENTH + FIRST + FIRST).forEach(weight -> master.send(weight, "growQueues".concat(String.valueOf(weight))));
+        master.send(TENTH + FIRST + FIRST, ZERO, "growQueues:last");
+        Assert.assertEquals(TENTH + FIRST + FIRST, master.getQueueSize().size());
+        Assert.assertEquals(TENTH + FIRST + FIRST, master.getAllQueue().size());
+        Assert.assertTrue(master.getQueueSize(TENTH + FIRST + FIRST) >= FIRST);
+        log.info("growQueues finished, shardSize: {}, queueSize: {}", master.getShardSize(), master.getQueueSize());
+        IntStream.rangeClosed(FIRST, TENTH + FIRST + FIRST).forEach(shard -> context.getRedissonUtils().del(context.getQueue(shard)));
+        context.getRedissonUtils().del(context.queueNumsKey());
+    }
+
+    @Test
+    public void typedPayload() {
+        final TaskConfig config = TaskConfig.builder().prefix(prefix.concat(":typed")).redissonClient(context.getConfig().getRedissonClient())
+                .heartbeatInterval(heartbeatInterval).expirationCount(expirationCount)
+                .codec(new KryoTaskCodec<>(HashMap.class)).compressThreshold(TENTH * TENTH).build();
+        final TaskContext typedContext = new TaskContext(config);
+        final Master<Map<String, Object>> typedMaster = new Master<>(config);
+        final Map<String, Object> task = new HashMap<>();
+        task.put("id", (long) TENTH);
+        task.put("body", String.join(EMPTY_STRING, Collections.nCopies(TENTH * TENTH, "typedPayload")));
+        final String id = typedMaster.send(QueueType.ONE, FIRST, task);
+        final Optional<String> stored = typedContext.getRedissonUtils().hget(typedContext.payloadHash(typedContext.getQueue(QueueType.ONE)), id);
+        Assert.assertEquals(task, typedMaster.getQueue(QueueType.ONE).iterator().next().getValue().getPayload());
+        log.info("typedPayload finished, id: {}, stored bytes: {}", id, stored.map(String::length).orElse(ZERO));
+        Assert.assertEquals(Status.SUCCESS, typedMaster.delete(id));
+        typedMaster.close();
+        typedContext.getAllKey().forEach((v) -> typedContext.getRedissonUtils().del(v));
+    }
+
+    @Test
+    public void consumeAsync() {
+        setResultQueue();
+        IMasterAsync<String> masterAsync = master;
+        List<Task<String>> values = masterAsync.consumeAsync(THIRD).join();
+        CompletableFuture.allOf(values.stream().map(masterAsync::commitAsync).toArray(CompletableFuture[]::new)).join();
+        log.info("consumeAsync finished, values: {}, executeSum: {}", values, masterAsync.getExecuteQueueSumAsync().join());
     }
 
     @Test
     public void delete() {
-        final String value = String.valueOf(QueueType.ONE).concat(String.valueOf(FIRST));
-        log.info("delete value:{} finished, boolean: {}", value, master.delete(QueueType.ONE, value));
+        final String id = master.send(QueueType.ONE, FIRST, String.valueOf(QueueType.ONE).concat(String.valueOf(FIRST)));
+        log.info("delete id:{} finished, status: {}", id, master.delete(QueueType.ONE, id));
+    }
+
+    /**
+     * 相同的任务数据投放两次得到两个任务, 按ID删除时直接定位ID中记录的分片
+     */
+    @Test
+    public void deleteById() {
+        final String first = master.send(QueueType.TWO, FIRST, "deleteById");
+        final String second = master.send(QueueType.TWO, FIRST, "deleteById");
+        Assert.assertNotEquals(first, second);
+        Assert.assertEquals(Status.SUCCESS, master.delete(first));
+        Assert.assertEquals(Status.NON_EXISTENT, master.delete(first));
+        Assert.assertEquals(Status.SUCCESS, master.delete(second));
+        log.info("deleteById finished, ids: {}, {}, queueSize: {}", first, second, master.getQueueSize(QueueType.TWO));
+    }
+
+    /**
+     * 延时任务到期前不在就绪队列中, 同样可以按ID删除
+     */
+    @Test
+    public void sendAfter() {
+        final int queueSize = master.getQueueSize(QueueType.ONE);
+        final String id = master.sendAfter(FIRST, TimeUnit.HOURS, FIRST, "sendAfter");
+        Assert.assertEquals(queueSize, master.getQueueSize(QueueType.ONE));
+        Assert.assertTrue(master.getScheduledSum() >= FIRST);
+        Assert.assertEquals(Status.SUCCESS, master.delete(id));
+        Assert.assertEquals(Status.NON_EXISTENT, master.delete(id));
+        log.info("sendAfter finished, id: {}, scheduledSum: {}", id, master.getScheduledSum());
+    }
+
+    @Test
+    public void getDeadLetters() {
+        Assert.assertEquals(Status.NON_EXISTENT, master.redrive(Task.newId(FIRST)));
+        log.info("getDeadLetters finished, sum: {}, letters: {}", master.getDeadLetterSum(), master.getDeadLetters(TENTH));
     }
 
     @Test
@@ -118,7 +233,7 @@ public class MasterTest {
     @Test
     public void commit() {
         IntStream.range(ZERO, THIRD).forEach((number) ->
-                master.commit(context.resultQueue().concat(REDIS_SPLIT).concat(String.valueOf(number)))); // THIRD多提交一次
+                master.commit(new Task<>(context.resultQueue().concat(REDIS_SPLIT).concat(String.valueOf(number)), null))); // THIRD多提交一次
         log.info("commit finished, ExecuteQueue: {}", master.getExecuteQueue());
     }
 
@@ -1,18 +1,44 @@
 package edu.vt.ranhuo.asyncslave.context;
 
+import edu.vt.ranhuo.asynccore.enums.Status;
+import edu.vt.ranhuo.asynccore.model.Task;
+
 import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 public interface ISlave<T> extends Closeable {
     /**
      * 每次调用消费Queue中数据, 若列表无数据则返回空Optional
-     * 注意: 因为是轮流从多个队列中获取数据, 所以需要使用分布式锁
+     * 轮流从多个队列中获取数据, 取任务与存入执行队列由lua脚本原子完成, 不使用分布式锁
+     */
+    Optional<Task<T>> consume();
+    /**
+     * 阻塞消费, 队列无数据时等待master投放任务时发布的唤醒消息, 而不是循环轮询redis
+     * 在timeout内获取到任务立即返回, 超时或线程被中断则返回空Optional
+     *
+     * @param timeout 最长等待时间
+     * @param unit 时间单位
      */
-    Optional<T> consume();
+    Optional<Task<T>> consume(long timeout, TimeUnit unit);
+
     /**
-     * 无锁消费，获取当前节点所负责的队列中的任务，但当当前节点负责的队列数多于1 时，采用consume()方法
+     * 无锁消费, 优先获取当前节点所负责队列(由rebalance分配)中优先级最高的任务
+     * 所负责的队列都为空时, 从其他队列中窃取任务, 取任务与存入执行队列均由lua脚本原子完成, 不会阻塞在分布式锁上
      */
-    Optional<T> consume_unlock();
+    Optional<Task<T>> consume_unlock();
+
+    /**
+     * 批量消费, 从当前节点所负责的队列中按优先级从高到低一次性获取至多maxTasks个任务, 并全部存放至执行队列
+     * 所负责的队列都为空时, 同consume_unlock从其他队列中窃取任务
+     * 取任务与存入执行队列由一次lua脚本调用原子完成, 若队列无数据则返回空列表
+     *
+     * @param maxTasks 最大任务数
+     * @return 任务列表
+     */
+    List<Task<T>> consume(int maxTasks);
 
     /**
      * 获取正在执行的队列任务数
@@ -22,13 +48,40 @@ public interface ISlave<T> extends Closeable {
     int getExecuteQueueSum();
 
     /**
-     * 结束执行任务, 将任务结果value存放至result队列中, 并删除执行队列中的任务executeValue
-     * executeValue的值是consume函数获取的数据
+     * 结束执行任务, 将任务结果value存放至result队列中, 并删除执行队列中的任务及其任务数据
+     * task为consume函数获取的任务, 只使用其中的任务ID
      *
      * @param value 任务结果
-     * @param executeValue  删除执行中的任务
+     * @param task  执行中的任务
+     */
+    void commit(T value, Task<T> task);
+
+    /**
+     * 批量结束执行任务, 将全部任务结果存放至result队列中, 并删除执行队列中对应的任务
+     * 由一次lua脚本调用原子完成, 适合批量处理任务后统一提交
+     *
+     * @param values 执行中的任务 -> 任务结果value, 需要保持提交顺序时请使用LinkedHashMap
+     */
+    void commitAll(Map<Task<T>, T> values);
+
+    /**
+     * 任务执行失败, 从执行队列中移除, 按config中的retryBackoff指数退避后重新投放至就绪队列最高优先级,
+     * 执行次数达到maxAttempts后进入死信, 可通过master.getDeadLetters()查看, 重试不复制任务数据
+     *
+     * @param task  执行中的任务
+     * @param cause 失败原因, 记录在死信中
+     * @return RETRY: 等待重试, DEAD: 进入死信, NON_EXISTENT: 任务已提交或租约过期被回收
+     */
+    Status fail(Task<T> task, Throwable cause);
+
+    /**
+     * 延长任务的租约, 执行时间可能超过leaseTimeout的任务应在执行过程中定期调用, 未启用租约时直接返回true
+     * 返回false时任务已因租约过期被放回就绪队列, 可能已由其他节点执行, 此时应放弃该任务, 之后的提交会被忽略
+     *
+     * @param task 执行中的任务
+     * @return 租约是否仍然有效
      */
-    void commit(T value, T executeValue);
+    boolean renew(Task<T> task);
 
     /**
      * 获取当前节点信息
@@ -0,0 +1,46 @@
+package edu.vt.ranhuo.asyncslave.context;
+
+import edu.vt.ranhuo.asynccore.model.Task;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * ISlave的异步版本, 所有操作都不阻塞调用线程, 结果通过CompletableFuture返回
+ * 少量线程即可同时驱动大量并发操作, redisson会将同一连接上的并发命令自然地合并发送
+ */
+public interface ISlaveAsync<T> {
+    /**
+     * 轮流从多个队列中获取数据, 若列表无数据则返回空Optional
+     */
+    CompletableFuture<Optional<Task<T>>> consumeAsync();
+
+    /**
+     * 批量消费, 从当前节点所负责的队列中按优先级从高到低一次性获取至多maxTasks个任务, 若队列无数据则返回空列表
+     *
+     * @param maxTasks 最大任务数
+     */
+    CompletableFuture<List<Task<T>>> consumeAsync(int maxTasks);
+
+    /**
+     * 结束执行任务, 将任务结果value存放至result队列中, 并删除执行队列中的任务
+     *
+     * @param value 任务结果
+     * @param task 执行中的任务
+     */
+    CompletableFuture<Void> commitAsync(T value, Task<T> task);
+
+    /**
+     * 批量结束执行任务
+     *
+     * @param values 执行中的任务 -> 任务结果value
+     */
+    CompletableFuture<Void> commitAllAsync(Map<Task<T>, T> values);
+
+    /**
+     * 获取正在执行的队列任务数
+     */
+    CompletableFuture<Integer> getExecuteQueueSumAsync();
+}
@@ -1,82 +1,186 @@
 package edu.vt.ranhuo.asyncslave.context;
 
+import edu.vt.ranhuo.asynccore.codec.PayloadCodec;
 import edu.vt.ranhuo.asynccore.config.TaskConfig;
 import edu.vt.ranhuo.asynccore.config.TaskContext;
-import edu.vt.ranhuo.asynccore.enums.QueueType;
+import edu.vt.ranhuo.asynccore.enums.Status;
+import edu.vt.ranhuo.asynccore.model.Task;
 import edu.vt.ranhuo.asynccore.service.leader.LeaderService;
 import edu.vt.ranhuo.asynccore.service.leader.impl.LeaderServiceImpl;
+import edu.vt.ranhuo.asynccore.service.rebalance.RebalanceNotifier;
 import edu.vt.ranhuo.asynccore.service.task.TaskService;
 import edu.vt.ranhuo.asynccore.service.task.impl.TaskServiceImpl;
-import edu.vt.ranhuo.asynccore.utils.QueueSelector;
+import edu.vt.ranhuo.asynccore.utils.QueueSizeSnapshot;
+import edu.vt.ranhuo.asynccore.utils.RedissonUtils;
+import edu.vt.ranhuo.asynccore.utils.TopicSignal;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.BLOCKING_POLL_INTERVAL;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.END_INDEX;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.FIRST;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.QUEUE_SIZE_SNAPSHOT_TTL;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.REBALANCE_TOPIC;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.SECOND;
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.ZERO;
+
+/**
+ * 任务类型T由config中的codec决定, 默认为String, 与master使用相同的codec
+ */
 @Slf4j
-public class Slave implements ISlave<String> {
+public class Slave<T> implements ISlave<T>, ISlaveAsync<T> {
     private final TaskContext context;
     private final TaskService<String, String> service;
+    private final PayloadCodec<T> codec;
     private final LeaderService leaderService;
+    private final TopicSignal readySignal;
+    private final QueueSizeSnapshot stealSnapshot;
+    private final TopicSignal rebalanceSignal;
+    private volatile List<String> assignedQueues = Collections.emptyList(); // 本地缓存的队列分配关系
+    private volatile long assignedSignalVersion = END_INDEX; // 缓存时rebalanceSignal的版本号
+    private volatile long assignedVersion = END_INDEX; // 缓存时REBALANCE_VERSION的值
+    private volatile long assignedCheckedAt; // 上一次核对REBALANCE_VERSION的时间
+    private final AtomicLong completed = new AtomicLong(); // 累计提交的任务数, 随心跳上报完成速率
 
     public Slave(TaskConfig config) {
         this.context = new TaskContext(config);
         this.service = new TaskServiceImpl(context);
-        this.leaderService = new LeaderServiceImpl(context, context.slaveHashKey());
+        this.codec = PayloadCodec.of(config);
+        this.leaderService = new LeaderServiceImpl(context, context.slaveHashKey(), Optional.of(completed::get));
+        this.readySignal = new TopicSignal(config.getRedissonClient(), context.readyTopic());
+        this.stealSnapshot = new QueueSizeSnapshot(context.getRedissonUtils(), QUEUE_SIZE_SNAPSHOT_TTL);
+        this.rebalanceSignal = new TopicSignal(config.getRedissonClient(), REBALANCE_TOPIC);
     }
 
-    //对于每一个队列，这个方法会尝试从队列的右端弹出一个元素，这个操作由context.getRedissonUtils().zrpop(queueName)完成。
-    //如果弹出的元素存在（即Optional<String>不为空），这个方法会执行以下操作：
-    //将这个元素添加到执行队列中，这个操作由service.sendExecuteQueue(context.slaveHashKey(), tValue.get())完成。
-    //从原队列中删除这个元素，这个操作由context.getRedissonUtils().zrem(queueName, tValue.get())完成
-    // TODO: lua脚本优化 取任务-存入执行队列的过程
+    //对于每一个队列，通过lua脚本在redis端原子地弹出最高优先级的任务并存放至执行队列，由service.claim完成
+    //因为弹出和存放执行队列在一次脚本调用中完成，多个slave并发消费同一队列也不会重复获取任务，无需分布式锁
     @Override
-    public Optional<String> consume() {
+    public Optional<Task<T>> consume() {
         List<String> allQueue = context.getAllQueue();
         for (String queueName : allQueue) {
-            // 为每个队列名称获取一个唯一的锁
-            String lockKey = context.slaveConsumerLock(queueName);
-            // 尝试获取锁并消费队列
-            Optional<String> lockedConsumeResult = context.getRedissonUtils().lock(lockKey, Optional.empty(), (t) -> {
-                log.info("slave[{}] consume start, queue: {}", context.slaveHashKey(), queueName);
-                Optional<String> tValue = context.getRedissonUtils().zrpop(queueName);
-                if (tValue.isPresent()) {
-                    service.sendExecuteQueue(context.slaveHashKey(), tValue.get());
-                    context.getRedissonUtils().zrem(queueName, tValue.get());
-                    log.info("slave[{}] consume finished, queue: {}, value: {}", context.slaveHashKey(), queueName, tValue);
-                    return tValue;
-                }
-                return Optional.empty();
-            });
+            Optional<Task<String>> tValue = service.claim(queueName, context.slaveHashKey());
             // 如果当前队列成功消费了任务，则结束循环返回结果
-            if (lockedConsumeResult.isPresent()) {
-                return lockedConsumeResult;
+            if (tValue.isPresent()) {
+                Optional<Task<T>> value = tValue.map(codec::decode);
+                log.info("slave[{}] consume finished, queue: {}, value: {}", context.slaveHashKey(), queueName, value);
+                return value;
             }
         }
         return Optional.empty(); // 如果所有队列都没有任务，返回空的Optional
     }
 
-    public Optional<String> consume_unlock() {
-        List<Integer> queuesForWorker = leaderService.getQueuesForWorker(context.slaveHashKey());
-        if(queuesForWorker.size()== 0){
+    //先记录唤醒信号的版本号再消费, 若消费期间master投放了任务, 版本号已经变化, 不会错过唤醒
+    //单次等待不超过BLOCKING_POLL_INTERVAL, 即使发布订阅消息丢失也能及时重新检查队列
+    @Override
+    public Optional<Task<T>> consume(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        try {
+            while (true) {
+                long version = readySignal.version();
+                Optional<Task<T>> tValue = consume();
+                long remaining = deadline - System.nanoTime();
+                if (tValue.isPresent() || remaining <= ZERO) {
+                    return tValue;
+                }
+                readySignal.await(version, Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(BLOCKING_POLL_INTERVAL)),
+                        TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("slave[{}] blocking consume interrupted", context.slaveHashKey());
             return Optional.empty();
         }
-        if(queuesForWorker.size()>1){
-            return consume();
+    }
+
+    //先在所负责的队列中取优先级最高的任务, 多个队列也只需一次lua脚本调用
+    //所负责的队列都为空时再从其他队列中最长的队列窃取, 每个slave平时只访问自己的队列, 不同slave之间没有锁竞争
+    @Override
+    public Optional<Task<T>> consume_unlock() {
+        List<Task<T>> consumeResult = consume(FIRST);
+        return consumeResult.isEmpty() ? Optional.empty() : Optional.of(consumeResult.get(ZERO));
+    }
+
+    @Override
+    public List<Task<T>> consume(int maxTasks) {
+        List<String> queuesForWorker = getQueuesForWorker();
+        List<Task<String>> consumeResult = service.claim(queuesForWorker, context.slaveHashKey(), maxTasks);
+        if (consumeResult.isEmpty()) {
+            return codec.decodeTasks(steal(queuesForWorker, maxTasks));
+        }
+        log.info("slave[{}] consume finished, queues: {}, maxTasks: {}, size: {}", context.slaveHashKey(),
+                queuesForWorker, maxTasks, consumeResult.size());
+        return codec.decodeTasks(consumeResult);
+    }
+
+    //分配关系缓存在本地, 只在收到rebalance通知后重新读取, 消费时不再访问REBALANCE_MAP
+    //发布订阅消息可能丢失, 每个心跳间隔核对一次REBALANCE_VERSION作为兜底
+    private List<String> getQueuesForWorker() {
+        long signalVersion = rebalanceSignal.version();
+        if (signalVersion != assignedSignalVersion) {
+            refreshQueuesForWorker(signalVersion);
+        } else if (context.timestamp() - assignedCheckedAt > context.heartbeatInterval()) {
+            if (RebalanceNotifier.currentVersion(leaderRedissonUtils()) != assignedVersion) {
+                refreshQueuesForWorker(signalVersion);
+            } else {
+                assignedCheckedAt = context.timestamp();
+            }
         }
+        return assignedQueues;
+    }
+
+    // 先读取版本号再读取分配关系, 读取期间发生的重新分配会使版本号不一致, 下次调用时重新读取
+    // rebalance分配的队列编号从0开始, 队列名称从queue:1开始
+    private synchronized void refreshQueuesForWorker(long signalVersion) {
+        if (signalVersion == assignedSignalVersion && context.timestamp() - assignedCheckedAt <= context.heartbeatInterval()) {
+            return;
+        }
+        long version = RebalanceNotifier.currentVersion(leaderRedissonUtils());
+        context.refreshQueueNums(); // 扩容分片后也会发布rebalance通知, 同时刷新分片数
+        assignedQueues = Collections.unmodifiableList(leaderService.getQueuesForWorker(context.slaveHashKey()).stream()
+                .map(index -> context.getQueue(index + 1))
+                .collect(Collectors.toList()));
+        assignedVersion = version;
+        assignedSignalVersion = signalVersion;
+        assignedCheckedAt = context.timestamp();
+        log.info("slave[{}] queue assignment refreshed, version: {}, queues: {}", context.slaveHashKey(), version, assignedQueues);
+    }
 
-        QueueType queue = QueueSelector.mapIntToQueueType(queuesForWorker.get(0));
-        String queueName = context.getQueue(queue);
+    // 分配关系相关的key由rebalance使用默认编解码器的单例读写
+    private RedissonUtils leaderRedissonUtils() {
+        return RedissonUtils.getInstance(Optional.empty());
+    }
 
-        // 直接消费队列
-        Optional<String> consumeResult = context.getRedissonUtils().zrpop(queueName);
-        if (consumeResult.isPresent()) {
-            log.info("slave[{}] consume start, queue: {}", context.slaveHashKey(), queueName);
-            service.sendExecuteQueue(context.slaveHashKey(), consumeResult.get());
-            log.info("slave[{}] consume finished, queue: {}, value: {}", context.slaveHashKey(), queueName, consumeResult);
-            return consumeResult;
+    //根据队列长度快照选择其他队列中最长的一个窃取, QueueSelector的加权随机投放经常使queue:1远长于其他队列
+    //快照中最长的队列已被取空时使快照失效, 重新获取队列长度后再窃取一次
+    private List<Task<String>> steal(List<String> queuesForWorker, int maxTasks) {
+        List<String> otherQueues = getOtherQueues(queuesForWorker);
+        for (int i = ZERO; i < SECOND; i++) {
+            Optional<String> longest = stealSnapshot.longest(otherQueues);
+            if (!longest.isPresent()) {
+                break;
+            }
+            List<Task<String>> consumeResult = service.claim(Collections.singletonList(longest.get()), context.slaveHashKey(), maxTasks);
+            if (!consumeResult.isEmpty()) {
+                log.info("slave[{}] steal finished, queue: {}, maxTasks: {}, size: {}", context.slaveHashKey(),
+                        longest.get(), maxTasks, consumeResult.size());
+                return consumeResult;
+            }
+            stealSnapshot.invalidate();
         }
-        return Optional.empty();
+        return Collections.emptyList();
+    }
+
+    private List<String> getOtherQueues(List<String> queuesForWorker) {
+        return context.getAllQueue().stream().filter(queue -> !queuesForWorker.contains(queue)).collect(Collectors.toList());
     }
 
     @Override
@@ -85,12 +189,83 @@ public class Slave implements ISlave<String> {
     }
 
     @Override
-    public void commit(String value, String executeValue) {
-        context.getRedissonUtils().rpush(context.resultQueue(), value);
-        service.commitExecuteTask(context.slaveHashKey(), executeValue);
+    public void commit(T value, Task<T> task) {
+        service.commitAll(context.slaveHashKey(), Collections.singletonMap(task.getId(), codec.encode(value)));
+        completed.incrementAndGet();
         log.info("slave[{}] commit finished, resultQueue: {}, value: {}", context.slaveHashKey(), context.resultQueue(), value);
     }
 
+    @Override
+    public void commitAll(Map<Task<T>, T> values) {
+        service.commitAll(context.slaveHashKey(), codec.encode(byId(values)));
+        completed.addAndGet(values.size());
+        log.info("slave[{}] commitAll finished, resultQueue: {}, size: {}", context.slaveHashKey(), context.resultQueue(), values.size());
+    }
+
+    @Override
+    public Status fail(Task<T> task, Throwable cause) {
+        Status status = service.fail(context.slaveHashKey(), task.getId(), String.valueOf(cause));
+        log.warn("slave[{}] fail finished, id: {}, status: {}, cause: {}", context.slaveHashKey(), task.getId(), status, String.valueOf(cause));
+        return status;
+    }
+
+    @Override
+    public boolean renew(Task<T> task) {
+        return service.renew(context.slaveHashKey(), task.getId());
+    }
+
+    @Override
+    public CompletableFuture<Optional<Task<T>>> consumeAsync() {
+        return consumeAsync(context.getAllQueue(), ZERO).thenApply(tValue -> tValue.map(codec::decode));
+    }
+
+    //与consume()相同, 按队列顺序依次尝试, 前一个队列无任务时再链式尝试下一个队列
+    private CompletableFuture<Optional<Task<String>>> consumeAsync(List<String> queues, int index) {
+        if (index >= queues.size()) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        return service.claimAsync(queues.get(index), context.slaveHashKey()).thenCompose(tValue ->
+                tValue.isPresent() ? CompletableFuture.completedFuture(tValue) : consumeAsync(queues, index + 1));
+    }
+
+    @Override
+    public CompletableFuture<List<Task<T>>> consumeAsync(int maxTasks) {
+        List<String> queuesForWorker = getQueuesForWorker();
+        return service.claimAsync(queuesForWorker, context.slaveHashKey(), maxTasks).thenComposeAsync(values -> { // 快照可能需要同步刷新, 不能在redisson的netty线程中执行
+            if (!values.isEmpty()) {
+                return CompletableFuture.completedFuture(values);
+            }
+            Optional<String> longest = stealSnapshot.longest(getOtherQueues(queuesForWorker));
+            return longest.isPresent()
+                    ? service.claimAsync(Collections.singletonList(longest.get()), context.slaveHashKey(), maxTasks)
+                    : CompletableFuture.completedFuture(Collections.<Task<String>>emptyList());
+        }).thenApply(codec::decodeTasks);
+    }
+
+    @Override
+    public CompletableFuture<Void> commitAsync(T value, Task<T> task) {
+        return service.commitAllAsync(context.slaveHashKey(), Collections.singletonMap(task.getId(), codec.encode(value)))
+                .thenRun(completed::incrementAndGet);
+    }
+
+    @Override
+    public CompletableFuture<Void> commitAllAsync(Map<Task<T>, T> values) {
+        return service.commitAllAsync(context.slaveHashKey(), codec.encode(byId(values)))
+                .thenRun(() -> completed.addAndGet(values.size()));
+    }
+
+    // 任务 -> 结果 转换为 任务ID -> 结果, 保持提交顺序
+    private Map<String, T> byId(Map<Task<T>, T> values) {
+        Map<String, T> results = new LinkedHashMap<>();
+        values.forEach((task, value) -> results.put(task.getId(), value));
+        return results;
+    }
+
+    @Override
+    public CompletableFuture<Integer> getExecuteQueueSumAsync() {
+        return service.getExecuteQueueSumAsync(context.slaveHashKey());
+    }
+
     @Override
     public String getNodeInfo() {
         return context.slaveHashKey();
@@ -98,6 +273,8 @@ public class Slave implements ISlave<String> {
 
     @Override
     public void close() {
+        this.readySignal.close();
+        this.rebalanceSignal.close();
         this.leaderService.close();
     }
 }
@@ -0,0 +1,172 @@
+package edu.vt.ranhuo.asyncslave.runtime;
+
+import edu.vt.ranhuo.asynccore.model.Task;
+import edu.vt.ranhuo.asyncslave.context.ISlave;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.*;
+
+/**
+ * 托管的slave任务执行器, 替代用户手写的consume/commit循环
+ * 1. 调度线程按空闲并发数批量获取任务(至多prefetch个), 队列无任务时阻塞等待master的唤醒消息
+ * 2. 每个任务在独立的线程中执行, 运行在java21及以上时使用虚拟线程, 否则使用固定大小的线程池
+ * 3. handler执行成功后自动commit, 执行失败则调用fail按退避策略重试, 达到最大执行次数后进入死信
+ */
+@Slf4j
+public class SlaveRuntime<T> implements Closeable {
+    private final ISlave<T> slave;
+    private final TaskHandler<T> handler;
+    private final int maxConcurrency;
+    private final int prefetch;
+    private final long shutdownTimeout;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private Thread dispatcher;
+
+    @Builder
+    private SlaveRuntime(@NonNull ISlave<T> slave, @NonNull TaskHandler<T> handler, Integer maxConcurrency,
+                         Integer prefetch, Long shutdownTimeout) {
+        this.slave = slave;
+        this.handler = handler;
+        this.maxConcurrency = maxConcurrency == null ? RUNTIME_MAX_CONCURRENCY : Math.max(maxConcurrency, FIRST);
+        this.prefetch = prefetch == null ? RUNTIME_PREFETCH : Math.max(prefetch, FIRST);
+        this.shutdownTimeout = shutdownTimeout == null ? HEARTBEAT_INTERVAL : shutdownTimeout;
+        this.permits = new Semaphore(this.maxConcurrency);
+        this.executor = newExecutor(this.maxConcurrency);
+    }
+
+    /**
+     * 启动调度线程, 重复调用无效
+     */
+    public void start() {
+        if (!running.compareAndSet(FALSE, TRUE)) {
+            return;
+        }
+        dispatcher = new Thread(this::dispatch, "slave-runtime-".concat(slave.getNodeInfo()));
+        dispatcher.start();
+        log.info("slave[{}] runtime started, maxConcurrency: {}, prefetch: {}", slave.getNodeInfo(), maxConcurrency, prefetch);
+    }
+
+    /**
+     * 当前正在执行的任务数
+     */
+    public int getActiveCount() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    //先等待至少一个空闲并发数, 再把其余空闲并发数一起取出, 按min(空闲数, prefetch)批量获取任务, 多余的并发数归还
+    //批量获取不到任务时, 只保留一个并发数进行阻塞消费, 等待master投放任务的唤醒消息
+    private void dispatch() {
+        while (running.get()) {
+            try {
+                dispatchOnce();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        log.info("slave[{}] runtime dispatcher stopped", slave.getNodeInfo());
+    }
+
+    private void dispatchOnce() throws InterruptedException {
+        permits.acquire();
+        int available = FIRST + permits.drainPermits();
+        int size = Math.min(available, prefetch);
+        permits.release(available - size);
+        List<Task<T>> tasks;
+        try {
+            tasks = slave.consume(size);
+            if (tasks.isEmpty()) {
+                permits.release(size - FIRST);
+                size = FIRST;
+                tasks = slave.consume(BLOCKING_POLL_INTERVAL, TimeUnit.MILLISECONDS)
+                        .map(Collections::singletonList).orElse(Collections.emptyList());
+            }
+        } catch (RuntimeException e) { // redis异常时归还并发数, 等待一段时间后重试
+            permits.release(size);
+            log.error("slave[{}] runtime consume failed", slave.getNodeInfo(), e);
+            TimeUnit.MILLISECONDS.sleep(BLOCKING_POLL_INTERVAL);
+            return;
+        }
+        permits.release(size - tasks.size());
+        tasks.forEach(this::submit);
+    }
+
+    private void submit(Task<T> task) {
+        try {
+            executor.execute(() -> {
+                try {
+                    slave.commit(handler.handle(task.getPayload()), task);
+                } catch (Exception e) {
+                    log.error("slave[{}] runtime handle task failed, task: {}", slave.getNodeInfo(), task, e);
+                    fail(task, e);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) { // 调度线程在关闭超时后才获取到的任务, 通过fail交还, 避免滞留在仍在心跳的节点的执行队列中
+            permits.release();
+            log.warn("slave[{}] runtime is closed, hand task back: {}", slave.getNodeInfo(), task);
+            fail(task, e);
+        }
+    }
+
+    // fail本身失败(如redis异常)时任务保留在执行队列中, 由宕机处理或租约回收兜底
+    private void fail(Task<T> task, Exception cause) {
+        try {
+            slave.fail(task, cause);
+        } catch (RuntimeException e) {
+            log.error("slave[{}] runtime fail task failed, task is kept in execute set: {}", slave.getNodeInfo(), task, e);
+        }
+    }
+
+    /**
+     * 停止获取新任务并等待正在执行的任务结束, 超过shutdownTimeout仍未结束的任务保留在执行队列中
+     * 此接口不会关闭slave, 由调用方决定slave的生命周期
+     */
+    @Override
+    public void close() {
+        if (!running.compareAndSet(TRUE, FALSE)) {
+            return;
+        }
+        dispatcher.interrupt();
+        try {
+            // 先等待调度线程退出再关闭线程池, 调度线程退出前获取到的任务仍能正常执行
+            dispatcher.join(shutdownTimeout);
+            executor.shutdown();
+            if (!executor.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS)) {
+                log.warn("slave[{}] runtime closed with {} tasks still running", slave.getNodeInfo(), getActiveCount());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+        log.info("slave[{}] runtime closed", slave.getNodeInfo());
+    }
+
+    //编译目标低于java21, 通过反射获取虚拟线程执行器, 不存在时退回到固定大小的平台线程池
+    private static ExecutorService newExecutor(int maxConcurrency) {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.info("virtual threads are not available, use fixed thread pool, size: {}", maxConcurrency);
+            return Executors.newFixedThreadPool(maxConcurrency);
+        }
+    }
+}
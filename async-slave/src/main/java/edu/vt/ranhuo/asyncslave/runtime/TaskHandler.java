@@ -0,0 +1,17 @@
+package edu.vt.ranhuo.asyncslave.runtime;
+
+/**
+ * SlaveRuntime执行任务的业务处理函数
+ */
+@FunctionalInterface
+public interface TaskHandler<T> {
+    /**
+     * 处理任务, 返回值作为任务结果提交至result队列
+     * 抛出异常时任务不会被提交, SlaveRuntime调用slave.fail按retryBackoff指数退避后重新投放,
+     * 执行次数达到maxAttempts后移入死信队列, 可通过master查看或重新投放
+     *
+     * @param task consume获取的任务
+     * @return 任务结果
+     */
+    T handle(T task) throws Exception;
+}
@@ -2,8 +2,10 @@ package edu.vt.ranhuo.asyncslave.context;
 
 import edu.vt.ranhuo.asynccore.config.TaskConfig;
 import edu.vt.ranhuo.asynccore.config.TaskContext;
+import edu.vt.ranhuo.asynccore.model.Task;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.redisson.Redisson;
@@ -11,6 +13,13 @@ import org.redisson.api.RedissonClient;
 import org.redisson.config.Config;
 
 import java.net.URL;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static edu.vt.ranhuo.asynccore.enums.CommonConstants.*;
@@ -20,17 +29,18 @@ public class SlaveTest {
     private final String prefix = "test:slave";
     private final long heartbeatInterval = 10 * 1000;
     private final int expirationCount = 3;
-    private ISlave<String> slave;
+    private Slave<String> slave;
     private TaskContext context;
+    private TaskConfig config;
 
     @Before
     public void setUp() throws Exception {
         final URL resource = SlaveTest.class.getClassLoader().getResource("redisson.yml");
         final RedissonClient redissonClient = Redisson.create(Config.fromYAML(resource));
-        final TaskConfig config = TaskConfig.builder().prefix(prefix).redissonClient(redissonClient).heartbeatInterval(heartbeatInterval).expirationCount(expirationCount).build();
+        config = TaskConfig.builder().prefix(prefix).redissonClient(redissonClient).heartbeatInterval(heartbeatInterval).expirationCount(expirationCount).build();
         log.info(String.format("init config: %s", config));
         context = new TaskContext(config);
-        slave = new Slave(config);
+        slave = new Slave<>(config);
     }
 
     @After
@@ -53,7 +63,64 @@ public class SlaveTest {
     @Test
     public void consume() {
         IntStream.range(ZERO, SEVENTH).forEach((v) -> log.info("consume{}: {}", v, slave.consume()));
-        log.info("consume finished, executeHash: {}", context.getRedissonUtils().hgetall(context.executeHash()));
+        log.info("consume finished, executeSet: {}", context.getRedissonUtils().smembers(context.executeSet(slave.getNodeInfo())));
+    }
+
+    @Test
+    public void consumeUnlock() {
+        setQueueTask();
+        IntStream.range(ZERO, SEVENTH).forEach((v) -> log.info("consumeUnlock{}: {}", v, slave.consume_unlock())); // 所负责的队列为空后从其他队列窃取
+        log.info("consumeUnlock finished, executeSet: {}", context.getRedissonUtils().smembers(context.executeSet(slave.getNodeInfo())));
+    }
+
+    @Test
+    public void consumeSteal() {
+        TaskConfig stealConfig = TaskConfig.builder().prefix(prefix).redissonClient(config.getRedissonClient())
+                .heartbeatInterval(heartbeatInterval).expirationCount(expirationCount).queueNums(THIRD).build();
+        TaskContext stealContext = new TaskContext(stealConfig);
+        ISlave<String> stealSlave = new Slave<>(stealConfig);
+        // 只负责queue:1, queue:3比queue:2更长, queue:1为空时应先从queue:3窃取
+        stealContext.getRedissonUtils().getRedisson().getMap(REBALANCE_MAP).put(stealSlave.getNodeInfo(), "[0]");
+        context.getRedissonUtils().zadd(stealContext.getAllQueue().get(FIRST), ZERO, "steal:2:0");
+        IntStream.range(ZERO, THIRD).forEach(number -> context.getRedissonUtils().zadd(stealContext.getAllQueue().get(SECOND), number, "steal:3:" + number));
+        List<Optional<String>> payloads = IntStream.range(ZERO, FIFTH)
+                .mapToObj((v) -> stealSlave.consume_unlock().map(Task::getPayload)).collect(Collectors.toList());
+        log.info("consumeSteal finished, payloads: {}", payloads);
+        stealContext.getAllKey().forEach((v) -> context.getRedissonUtils().del(v));
+        stealContext.getRedissonUtils().getRedisson().getMap(REBALANCE_MAP).remove(stealSlave.getNodeInfo());
+        stealSlave.close();
+        // queue:3取空后失效的队列长度快照需要重新读取, 才能继续从queue:2窃取
+        Assert.assertEquals(Arrays.asList(Optional.of("steal:3:2"), Optional.of("steal:3:1"), Optional.of("steal:3:0"),
+                Optional.of("steal:2:0"), Optional.empty()), payloads);
+    }
+
+    @Test
+    public void consumeBatch() {
+        setQueueTask();
+        log.info("consumeBatch: {}", slave.consume(THIRD));
+        log.info("consumeBatch finished, executeSet: {}", context.getRedissonUtils().smembers(context.executeSet(slave.getNodeInfo())));
+    }
+
+    @Test
+    public void consumeAsync() {
+        setQueueTask();
+        ISlaveAsync<String> slaveAsync = slave;
+        Optional<Task<String>> value = slaveAsync.consumeAsync().join();
+        value.ifPresent((v) -> slaveAsync.commitAsync(v.getPayload().concat(REDIS_SPLIT).concat("result"), v).join());
+        log.info("consumeAsync finished, value: {}, executeSum: {}", value, slaveAsync.getExecuteQueueSumAsync().join());
+    }
+
+    @Test
+    public void consumeBlocking() {
+        long start = System.currentTimeMillis();
+        log.info("consumeBlocking empty: {}, cost: {}ms", slave.consume(SECOND, TimeUnit.SECONDS), System.currentTimeMillis() - start);
+        new Thread(() -> {
+            waiting(MILLISECOND);
+            context.getAllQueue().forEach((queue) -> context.getRedissonUtils().zadd(queue, ZERO, queue.concat(REDIS_SPLIT).concat(String.valueOf(ZERO))));
+            context.getRedissonUtils().publish(context.readyTopic(), context.getAllQueue().toString());
+        }).start();
+        start = System.currentTimeMillis();
+        log.info("consumeBlocking: {}, cost: {}ms", slave.consume(FIFTH, TimeUnit.SECONDS), System.currentTimeMillis() - start);
     }
 
     @Test
@@ -65,10 +132,20 @@ public class SlaveTest {
     public void commit() {
         IntStream.range(ZERO, SECOND).forEach(number -> context.getAllQueue().forEach((queue) -> {
             String value = queue.concat(REDIS_SPLIT).concat(String.valueOf(number));
-            slave.commit(value, value);
+            slave.commit(value, new Task<>(value, value));
         }));
     }
 
+    @Test
+    public void commitAll() {
+        setQueueTask();
+        Map<Task<String>, String> values = new LinkedHashMap<>();
+        slave.consume(SEVENTH).forEach((v) -> values.put(v, v.getPayload().concat(REDIS_SPLIT).concat("result")));
+        slave.commitAll(values);
+        log.info("commitAll finished, executeSet: {}, resultQueue: {}", context.getRedissonUtils().smembers(context.executeSet(slave.getNodeInfo())),
+                context.getRedissonUtils().lrange(context.resultQueue(), ZERO, context.getRedissonUtils().llen(context.resultQueue())));
+    }
+
     @Test
     public void getNodeInfo() {
         log.info("getNodeInfo finished, info: {}", slave.getNodeInfo());
@@ -85,6 +162,14 @@ public class SlaveTest {
                 context.getAllQueue().forEach((queue) -> context.getRedissonUtils().zadd(queue, number, queue.concat(REDIS_SPLIT).concat(String.valueOf(number)))));
     }
 
+    private void waiting(long interval) {
+        try {
+            Thread.sleep(interval);
+        } catch (InterruptedException e) {
+            log.error("thread sleep error!", e);
+        }
+    }
+
     @Test
     public void clean() {
         context.getAllKey().forEach((v) -> context.getRedissonUtils().del(v));
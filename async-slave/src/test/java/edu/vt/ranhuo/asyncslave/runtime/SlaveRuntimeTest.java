@@ -0,0 +1,62 @@
+package edu.vt.ranhuo.asyncslave.runtime;
+
+import edu.vt.ranhuo.asynccore.config.TaskConfig;
+import edu.vt.ranhuo.asynccore.config.TaskContext;
+import edu.vt.ranhuo.asyncslave.context.ISlave;
+import edu.vt.ranhuo.asyncslave.context.Slave;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.redisson.Redisson;
+import org.redisson.api.RedissonClient;
+import org.redisson.config.Config;
+
+import java.net.URL;
+import java.util.stream.IntStream;
+
+import static edu.vt.ranhuo.asynccore.enums.CommonConstants.*;
+
+@Slf4j
+public class SlaveRuntimeTest {
+    private final String prefix = "test:runtime";
+    private final long heartbeatInterval = 10 * 1000;
+    private final int expirationCount = 3;
+    private ISlave<String> slave;
+    private TaskContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        final URL resource = SlaveRuntimeTest.class.getClassLoader().getResource("redisson.yml");
+        final RedissonClient redissonClient = Redisson.create(Config.fromYAML(resource));
+        final TaskConfig config = TaskConfig.builder().prefix(prefix).redissonClient(redissonClient).heartbeatInterval(heartbeatInterval).expirationCount(expirationCount).build();
+        log.info(String.format("init config: %s", config));
+        context = new TaskContext(config);
+        slave = new Slave<>(config);
+    }
+
+    @After
+    public void tearDown() {
+        context.getAllKey().forEach((v) -> context.getRedissonUtils().del(v));
+        slave.close();
+    }
+
+    @Test
+    public void run() throws InterruptedException {
+        IntStream.range(ZERO, TENTH).forEach(number -> context.getAllQueue().forEach((queue) ->
+                context.getRedissonUtils().zadd(queue, number, queue.concat(REDIS_SPLIT).concat(String.valueOf(number)))));
+        SlaveRuntime<String> runtime = SlaveRuntime.<String>builder().slave(slave).maxConcurrency(FIFTH).prefetch(THIRD)
+                .handler((task) -> {
+                    Thread.sleep(TENTH * TENTH);
+                    if (task.endsWith(String.valueOf(ZERO))) {
+                        throw new IllegalStateException("handle failed"); // 失败的任务按退避策略等待重试
+                    }
+                    return task.concat(REDIS_SPLIT).concat("result");
+                }).build();
+        runtime.start();
+        Thread.sleep(SECOND * MILLISECOND);
+        runtime.close();
+        log.info("run finished, resultQueue: {}, executeSet: {}, retrying: {}", context.getRedissonUtils().llen(context.resultQueue()),
+                context.getRedissonUtils().smembers(context.executeSet(slave.getNodeInfo())), context.getRedissonUtils().zcard(context.timerIndex()));
+    }
+}
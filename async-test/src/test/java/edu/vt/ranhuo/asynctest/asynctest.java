@@ -11,6 +11,7 @@ import edu.vt.ranhuo.asynccore.config.TaskConfig;
 import edu.vt.ranhuo.asynccore.config.TaskContext;
 import edu.vt.ranhuo.asynccore.enums.QueueType;
 import edu.vt.ranhuo.asynccore.lambda.ProcessLambda;
+import edu.vt.ranhuo.asynccore.model.Task;
 import edu.vt.ranhuo.asyncmaster.context.IMaster;
 import edu.vt.ranhuo.asyncmaster.context.Master;
 import edu.vt.ranhuo.asyncslave.context.ISlave;
@@ -126,7 +127,7 @@ public class asynctest {
     // master循环消费
     private void masterConsume() {
         process(() -> {
-            Optional<String> consume = master.consume();
+            Optional<Task<String>> consume = master.consume();
             waiting(heartbeatInterval); // 故意延迟master消费结果队列中的数据，为了当此节点宕机时执行队列有数据，可以完整触发leader宕机处理
             consume.ifPresent((v) -> master.commit(v));
         });
@@ -135,9 +136,9 @@ public class asynctest {
     // slave循环消费
     private void slaveConsume() {
         process(() -> {
-            Optional<String> consume = slave.consume();
+            Optional<Task<String>> consume = slave.consume();
             waiting(heartbeatInterval); // 故意延迟slave消费队列中的数据，为了当此节点宕机时执行队列有数据，可以完整触发leader宕机处理
-            consume.ifPresent((v) -> slave.commit(v.concat(REDIS_SPLIT).concat(Thread.currentThread().getName()), v));
+            consume.ifPresent((v) -> slave.commit(v.getPayload().concat(REDIS_SPLIT).concat(Thread.currentThread().getName()), v));
         });
     }
 
@@ -3,6 +3,7 @@ package edu.vt.ranhuo.asynctest;
 import edu.vt.ranhuo.asynccore.config.TaskConfig;
 import edu.vt.ranhuo.asynccore.config.TaskContext;
 import edu.vt.ranhuo.asynccore.enums.QueueType;
+import edu.vt.ranhuo.asynccore.model.Task;
 import edu.vt.ranhuo.asyncmaster.context.IMaster;
 import edu.vt.ranhuo.asyncmaster.context.Master;
 import edu.vt.ranhuo.asyncslave.context.ISlave;
@@ -57,19 +58,19 @@ public class simpletest {
 
     public static void main(String[] args) throws IOException, InterruptedException {
         simpletest testAsync = new simpletest();
-        IMaster master = testAsync.createMaster();
-        ISlave slave = testAsync.createSlave();
-        ISlave slave2 = testAsync.createSlave();
+        IMaster<String> master = testAsync.createMaster();
+        ISlave<String> slave = testAsync.createSlave();
+        ISlave<String> slave2 = testAsync.createSlave();
         master.send(1,"test-task1, hahaha");
         master.send(1,"test-task2, hahaha");
         master.send(1,"test-task3, hahaha");
 
         System.out.println(master.getActiveNodeInfo());
 
-        Optional<String> ops =  slave.consume_unlock();
+        Optional<Task<String>> ops =  slave.consume_unlock();
         slave2.consume_unlock();
         if(ops.isPresent()){
-            String task = ops.get();
+            Task<String> task = ops.get();
             System.out.println(task);
             slave.commit("task finish",task);
         }else {